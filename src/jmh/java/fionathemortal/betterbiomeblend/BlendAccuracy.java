@@ -0,0 +1,656 @@
+package fionathemortal.betterbiomeblend;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public final class BlendAccuracy
+{
+    public interface Kernel
+    {
+        void blend(int[] result, ColorBlendBuffer blendBuffer);
+    }
+
+    public interface RectKernel
+    {
+        void blend(int[] result, ColorBlendBuffer blendBuffer, int minX, int minZ, int maxX, int maxZ);
+    }
+
+    public static final class NamedKernel
+    {
+        public final String name;
+        public final Kernel kernel;
+
+        public
+        NamedKernel(String name, Kernel kernel)
+        {
+            this.name   = name;
+            this.kernel = kernel;
+        }
+    }
+
+    public static final class NamedRectKernel
+    {
+        public final String     name;
+        public final RectKernel kernel;
+
+        public
+        NamedRectKernel(String name, RectKernel kernel)
+        {
+            this.name   = name;
+            this.kernel = kernel;
+        }
+    }
+
+    public static final class ErrorStats
+    {
+        public double max;
+        public double sum;
+        public long   count;
+
+        public void
+        add(double error)
+        {
+            max  = Math.max(max, error);
+            sum += error;
+
+            ++count;
+        }
+
+        public double
+        getMean()
+        {
+            double result = (count > 0) ? sum / (double)count : 0.0;
+
+            return result;
+        }
+
+        public boolean
+        isWithinBounds()
+        {
+            boolean result = isWithinBounds(MAX_ERROR_BOUND, MEAN_ERROR_BOUND);
+
+            return result;
+        }
+
+        public boolean
+        isWithinBounds(double maxErrorBound, double meanErrorBound)
+        {
+            boolean result =
+                max       <= maxErrorBound &&
+                getMean() <= meanErrorBound;
+
+            return result;
+        }
+    }
+
+    public static final double MAX_ERROR_BOUND  = Double.parseDouble(System.getProperty("betterbiomeblend.accuracy.maxError",  "0.75"));
+    public static final double MEAN_ERROR_BOUND = Double.parseDouble(System.getProperty("betterbiomeblend.accuracy.meanError", "0.3"));
+
+    public static final double HIERARCHICAL_MAX_ERROR_BOUND  = Double.parseDouble(System.getProperty("betterbiomeblend.accuracy.hierarchicalMaxError",  "4.0"));
+    public static final double HIERARCHICAL_MEAN_ERROR_BOUND = Double.parseDouble(System.getProperty("betterbiomeblend.accuracy.hierarchicalMeanError", "0.5"));
+
+    public static final int  ITERATIONS = Integer.getInteger("betterbiomeblend.accuracy.iterations", 64);
+    public static final long SEED       = Long.getLong("betterbiomeblend.accuracy.seed", 0x5EEDL);
+
+    public static final String[]
+    patterns =
+    {
+        SyntheticBiomeColors.UNIFORM,
+        SyntheticBiomeColors.SEAM,
+        SyntheticBiomeColors.PATCHWORK
+    };
+
+    public static List<NamedKernel>
+    getKernels()
+    {
+        List<NamedKernel> result = new ArrayList<>();
+
+        result.add(new NamedKernel("float", ColorBlending::blendColorsForChunkFloat));
+        result.add(new NamedKernel("fixed", ColorBlending::blendColorsForChunkFixedPoint));
+
+        if (BlendKernel.VECTOR_AVAILABLE)
+        {
+            result.add(new NamedKernel("vector", VectorColorBlending::blendColorsForChunk));
+        }
+
+        return result;
+    }
+
+    public static List<NamedRectKernel>
+    getRectKernels()
+    {
+        List<NamedRectKernel> result = new ArrayList<>();
+
+        result.add(new NamedRectKernel("float", ColorBlending::blendColorsForRectFloat));
+        result.add(new NamedRectKernel("fixed", ColorBlending::blendColorsForRectFixedPoint));
+
+        if (BlendKernel.VECTOR_AVAILABLE)
+        {
+            result.add(new NamedRectKernel("vector", VectorColorBlending::blendColorsForRect));
+        }
+
+        return result;
+    }
+
+    public static double
+    sRGBToLinear(double color)
+    {
+        double result;
+
+        if (color <= 0.0404482362771082)
+        {
+            result = color / 12.92;
+        }
+        else
+        {
+            result = Math.pow((color + 0.055) / 1.055, 2.4);
+        }
+
+        return result;
+    }
+
+    public static double
+    linearTosRGB(double color)
+    {
+        double result;
+
+        if (color <= 0.00313066844250063)
+        {
+            result = color * 12.92;
+        }
+        else
+        {
+            result = 1.055 * Math.pow(color, 1.0 / 2.4) - 0.055;
+        }
+
+        return result;
+    }
+
+    public static void
+    referenceBlend(double[] result, byte[] color, int blendRadius)
+    {
+        referenceBlend(result, color, blendRadius, blendRadius);
+    }
+
+    public static double[]
+    getBoxWeights(int blendRadius)
+    {
+        double[] result = new double[2 * blendRadius + 1];
+
+        Arrays.fill(result, 1.0 / (double)result.length);
+
+        return result;
+    }
+
+    public static double[]
+    getStackedBoxWeights(int blendRadius)
+    {
+        int kernelDim = 2 * blendRadius + 1;
+
+        double[] result = new double[kernelDim];
+
+        result[blendRadius] = 1.0;
+
+        for (int pass = 0;
+            pass < StackedBoxBlending.PASS_COUNT;
+            ++pass)
+        {
+            int passRadius = StackedBoxBlending.getPassRadius(blendRadius, pass);
+
+            double[] filtered = new double[kernelDim];
+
+            for (int index = 0;
+                index < kernelDim;
+                ++index)
+            {
+                for (int offset = -passRadius;
+                    offset <= passRadius;
+                    ++offset)
+                {
+                    if (index + offset >= 0 && index + offset < kernelDim)
+                    {
+                        filtered[index] += result[index + offset] / (double)(2 * passRadius + 1);
+                    }
+                }
+            }
+
+            result = filtered;
+        }
+
+        return result;
+    }
+
+    public static void
+    referenceBlend(double[] result, byte[] color, int blendRadius, int bufferRadius)
+    {
+        referenceBlend(result, color, getBoxWeights(blendRadius), bufferRadius, 16);
+    }
+
+    public static void
+    referenceBlend(double[] result, byte[] color, double[] weights, int bufferRadius, int outputDim)
+    {
+        int blendDim      = weights.length;
+        int blendRadius   = blendDim / 2;
+        int blendCacheDim = outputDim + 2 * bufferRadius;
+        int blendOffset   = bufferRadius - blendRadius;
+
+        double[] decoded = new double[256];
+        double[] rows    = new double[3 * blendCacheDim * outputDim];
+
+        for (int value = 0;
+            value < 256;
+            ++value)
+        {
+            decoded[value] = sRGBToLinear((double)value / 255.0);
+        }
+
+        for (int z = 0;
+            z < blendCacheDim;
+            ++z)
+        {
+            for (int x = 0;
+                x < outputDim;
+                ++x)
+            {
+                for (int channel = 0;
+                    channel < 3;
+                    ++channel)
+                {
+                    double accumulated = 0.0;
+
+                    for (int x1 = 0;
+                        x1 < blendDim;
+                        ++x1)
+                    {
+                        int index = 3 * (blendCacheDim * z + (blendOffset + x + x1)) + channel;
+
+                        accumulated += weights[x1] * decoded[0xFF & color[index]];
+                    }
+
+                    rows[3 * (outputDim * z + x) + channel] = accumulated;
+                }
+            }
+        }
+
+        for (int z = 0;
+            z < outputDim;
+            ++z)
+        {
+            for (int x = 0;
+                x < outputDim;
+                ++x)
+            {
+                for (int channel = 0;
+                    channel < 3;
+                    ++channel)
+                {
+                    double accumulated = 0.0;
+
+                    for (int z1 = 0;
+                        z1 < blendDim;
+                        ++z1)
+                    {
+                        accumulated += weights[z1] * rows[3 * (outputDim * (blendOffset + z + z1) + x) + channel];
+                    }
+
+                    result[3 * (outputDim * z + x) + channel] = 255.0 * linearTosRGB(accumulated);
+                }
+            }
+        }
+    }
+
+    public static void
+    fillRandomBlendBuffer(Random random, int iteration, ColorBlendBuffer blendBuffer)
+    {
+        int patternIndex = iteration % (patterns.length + 1);
+
+        if (patternIndex < patterns.length)
+        {
+            SyntheticBiomeColors.fillBlendBuffer(patterns[patternIndex], random.nextLong(), blendBuffer);
+        }
+        else
+        {
+            random.nextBytes(blendBuffer.color);
+        }
+    }
+
+    public static void
+    addErrors(ErrorStats[] result, int[] blended, double[] reference)
+    {
+        addErrors(result, blended, reference, 16, 0, 0, 16, 16);
+    }
+
+    public static void
+    addErrors(ErrorStats[] result, int[] blended, double[] reference, int outputDim, int minX, int minZ, int maxX, int maxZ)
+    {
+        for (int z = minZ;
+            z < maxZ;
+            ++z)
+        {
+            for (int x = minX;
+                x < maxX;
+                ++x)
+            {
+                int index = outputDim * z + x;
+                int color = blended[index];
+
+                result[0].add(Math.abs((double)Color.RGBAGetR(color) - reference[3 * index + 0]));
+                result[1].add(Math.abs((double)Color.RGBAGetG(color) - reference[3 * index + 1]));
+                result[2].add(Math.abs((double)Color.RGBAGetB(color) - reference[3 * index + 2]));
+            }
+        }
+    }
+
+    public static ErrorStats[]
+    measureKernel(Kernel kernel, int blendRadius)
+    {
+        ErrorStats[] result = measureKernel(kernel, blendRadius, 16, getBoxWeights(blendRadius));
+
+        return result;
+    }
+
+    public static ErrorStats[]
+    measureKernel(Kernel kernel, int blendRadius, int outputDim, double[] weights)
+    {
+        ErrorStats[] result = { new ErrorStats(), new ErrorStats(), new ErrorStats() };
+
+        Random random = new Random(SEED + blendRadius);
+
+        ColorBlendBuffer blendBuffer = new ColorBlendBuffer(blendRadius, outputDim);
+
+        int[]    blended   = new int[outputDim * outputDim];
+        double[] reference = new double[outputDim * outputDim * 3];
+
+        for (int iteration = 0;
+            iteration < ITERATIONS;
+            ++iteration)
+        {
+            fillRandomBlendBuffer(random, iteration, blendBuffer);
+
+            kernel.blend(blended, blendBuffer);
+
+            referenceBlend(reference, blendBuffer.color, weights, blendRadius, outputDim);
+
+            addErrors(result, blended, reference, outputDim, 0, 0, outputDim, outputDim);
+        }
+
+        return result;
+    }
+
+    public static ErrorStats[]
+    measureRectKernel(RectKernel kernel, int blendRadius)
+    {
+        ErrorStats[] result = { new ErrorStats(), new ErrorStats(), new ErrorStats() };
+
+        Random random = new Random(SEED + blendRadius);
+
+        ColorBlendBuffer blendBuffer = new ColorBlendBuffer(blendRadius);
+
+        int[]    blended   = new int[16 * 16];
+        double[] reference = new double[16 * 16 * 3];
+
+        for (int iteration = 0;
+            iteration < ITERATIONS;
+            ++iteration)
+        {
+            fillRandomBlendBuffer(random, iteration, blendBuffer);
+
+            int minX = random.nextInt(16);
+            int minZ = random.nextInt(16);
+            int maxX = minX + 1 + random.nextInt(16 - minX);
+            int maxZ = minZ + 1 + random.nextInt(16 - minZ);
+
+            kernel.blend(blended, blendBuffer, minX, minZ, maxX, maxZ);
+
+            referenceBlend(reference, blendBuffer.color, blendRadius, blendRadius);
+
+            addErrors(result, blended, reference, 16, minX, minZ, maxX, maxZ);
+        }
+
+        return result;
+    }
+
+    public static ErrorStats[]
+    measureSummedAreaTable(int blendRadius)
+    {
+        ErrorStats[] result = { new ErrorStats(), new ErrorStats(), new ErrorStats() };
+
+        Random random = new Random(SEED + blendRadius);
+
+        ColorBlendBuffer blendBuffer = new ColorBlendBuffer(SummedAreaTable.TABLE_RADIUS);
+        ColorChunk       table       = new ColorChunk(new ChunkArena(1, SummedAreaTable.SLOT_SIZE, false), 0);
+        ColorChunk       chunk       = new ColorChunk();
+
+        int[]    blended   = new int[16 * 16];
+        double[] reference = new double[16 * 16 * 3];
+
+        for (int iteration = 0;
+            iteration < ITERATIONS;
+            ++iteration)
+        {
+            fillRandomBlendBuffer(random, iteration, blendBuffer);
+
+            SummedAreaTable.build(table, blendBuffer.color);
+            SummedAreaTable.blendChunk(table, blendRadius, chunk);
+
+            chunk.get(0, blended, 0, 16 * 16);
+
+            referenceBlend(reference, blendBuffer.color, blendRadius, SummedAreaTable.TABLE_RADIUS);
+
+            addErrors(result, blended, reference);
+        }
+
+        return result;
+    }
+
+    public static ErrorStats[]
+    measureHierarchical(int blendRadius, boolean gaussian)
+    {
+        ErrorStats[] result = { new ErrorStats(), new ErrorStats(), new ErrorStats() };
+
+        Random random = new Random(SEED + blendRadius);
+
+        int kernelRadius = HierarchicalBlending.getKernelCellRadius(blendRadius);
+        int gridDim      = HierarchicalBlending.OUTPUT_DIM + 2 * kernelRadius;
+        int bufferRadius = HierarchicalBlending.CELL_SIZE * (HierarchicalBlending.MARGIN_CELLS + kernelRadius);
+
+        ColorBlendBuffer                blendBuffer = new ColorBlendBuffer(bufferRadius);
+        HierarchicalBlending.GridBuffer grid        = new HierarchicalBlending.GridBuffer();
+        ColorChunk                      chunk       = new ColorChunk();
+
+        int[]    blended   = new int[16 * 16];
+        double[] reference = new double[16 * 16 * 3];
+
+        double[] weights;
+
+        if (gaussian)
+        {
+            HierarchicalBlending.getStackedBoxCellWeights(blendRadius, kernelRadius, grid.weights);
+
+            weights = getStackedBoxWeights(blendRadius);
+        }
+        else
+        {
+            HierarchicalBlending.getBoxCellWeights(blendRadius, kernelRadius, grid.weights);
+
+            weights = getBoxWeights(blendRadius);
+        }
+
+        for (int iteration = 0;
+            iteration < ITERATIONS;
+            ++iteration)
+        {
+            fillRandomBlendBuffer(random, iteration, blendBuffer);
+
+            SyntheticBiomeColors.fillHierarchicalGrid(blendBuffer, grid, gridDim);
+
+            HierarchicalBlending.blendGrid(grid, kernelRadius, gridDim);
+            HierarchicalBlending.upsample(grid, chunk);
+
+            chunk.get(0, blended, 0, 16 * 16);
+
+            referenceBlend(reference, blendBuffer.color, weights, bufferRadius, 16);
+
+            addErrors(result, blended, reference);
+        }
+
+        return result;
+    }
+
+    public static boolean
+    reportKernel(String name, int blendRadius, ErrorStats[] stats, double maxErrorBound, double meanErrorBound)
+    {
+        boolean result =
+            stats[0].isWithinBounds(maxErrorBound, meanErrorBound) &&
+            stats[1].isWithinBounds(maxErrorBound, meanErrorBound) &&
+            stats[2].isWithinBounds(maxErrorBound, meanErrorBound);
+
+        System.out.printf(
+            "%-14s radius %2d  max R %.4f G %.4f B %.4f  mean R %.4f G %.4f B %.4f%s%n",
+            name,
+            blendRadius,
+            stats[0].max,
+            stats[1].max,
+            stats[2].max,
+            stats[0].getMean(),
+            stats[1].getMean(),
+            stats[2].getMean(),
+            result ? "" : "  FAILED");
+
+        return result;
+    }
+
+    public static boolean
+    reportConversion(String name, ErrorStats stats)
+    {
+        boolean result = stats.isWithinBounds();
+
+        System.out.printf("%-24s max %.4f  mean %.4f%s%n", name, stats.max, stats.getMean(), result ? "" : "  FAILED");
+
+        return result;
+    }
+
+    public static boolean
+    measureConversions()
+    {
+        ErrorStats decodeFloat = new ErrorStats();
+        ErrorStats decodeFixed = new ErrorStats();
+        ErrorStats encodeFloat = new ErrorStats();
+        ErrorStats encodeFixed = new ErrorStats();
+
+        for (int color = 0;
+            color < 256;
+            ++color)
+        {
+            double reference = 255.0 * sRGBToLinear((double)color / 255.0);
+
+            double linearFloat = 255.0 * Color.sRGBByteToLinearFloat(color);
+            double linearFixed = 255.0 * Color.sRGBByteToLinearFixed(color) / (double)Color.LINEAR_FIXED_ONE;
+
+            decodeFloat.add(Math.abs(linearFloat - reference));
+            decodeFixed.add(Math.abs(linearFixed - reference));
+        }
+
+        for (int step = 0;
+            step <= Color.LINEAR_FIXED_ONE;
+            ++step)
+        {
+            double linear    = (double)step / (double)Color.LINEAR_FIXED_ONE;
+            double reference = 255.0 * linearTosRGB(linear);
+
+            encodeFloat.add(Math.abs((double)(0xFF & Color.linearFloatTosRGBByte((float)linear)) - reference));
+            encodeFixed.add(Math.abs((double)(0xFF & Color.linearFixedTosRGBByte(step)) - reference));
+        }
+
+        boolean result = true;
+
+        result &= reportConversion("sRGBByteToLinearFloat", decodeFloat);
+        result &= reportConversion("sRGBByteToLinearFixed", decodeFixed);
+        result &= reportConversion("linearFloatTosRGBByte", encodeFloat);
+        result &= reportConversion("linearFixedTosRGBByte", encodeFixed);
+
+        return result;
+    }
+
+    public static void
+    main(String[] args)
+    {
+        System.out.printf("Bounds: max error %.4f, mean error %.4f (sRGB steps)%n", MAX_ERROR_BOUND, MEAN_ERROR_BOUND);
+
+        boolean success = measureConversions();
+
+        for (NamedKernel namedKernel : getKernels())
+        {
+            for (int blendRadius = BetterBiomeBlendClient.BIOME_BLEND_RADIUS_MIN;
+                blendRadius <= BetterBiomeBlendClient.BIOME_BLEND_RADIUS_MAX;
+                ++blendRadius)
+            {
+                ErrorStats[] stats = measureKernel(namedKernel.kernel, blendRadius);
+
+                success &= reportKernel(namedKernel.name, blendRadius, stats, MAX_ERROR_BOUND, MEAN_ERROR_BOUND);
+            }
+        }
+
+        for (int blendRadius = BetterBiomeBlendClient.BIOME_BLEND_RADIUS_MIN;
+            blendRadius <= BetterBiomeBlendClient.BIOME_BLEND_RADIUS_DIRECT_MAX;
+            ++blendRadius)
+        {
+            ErrorStats[] stats = measureKernel(StackedBoxBlending::blendColorsForChunk, blendRadius, 16, getStackedBoxWeights(blendRadius));
+
+            success &= reportKernel("gaussian", blendRadius, stats, MAX_ERROR_BOUND, MEAN_ERROR_BOUND);
+        }
+
+        for (NamedKernel namedKernel : getKernels())
+        {
+            for (int blendRadius = BetterBiomeBlendClient.BIOME_BLEND_RADIUS_MIN + 1;
+                blendRadius <= BetterBiomeBlendClient.BIOME_BLEND_RADIUS_DIRECT_MAX;
+                ++blendRadius)
+            {
+                ErrorStats[] stats = measureKernel(namedKernel.kernel, blendRadius, TileBlending.TILE_DIM, getBoxWeights(blendRadius));
+
+                success &= reportKernel("tile-" + namedKernel.name, blendRadius, stats, MAX_ERROR_BOUND, MEAN_ERROR_BOUND);
+            }
+        }
+
+        for (NamedRectKernel namedKernel : getRectKernels())
+        {
+            for (int blendRadius = BetterBiomeBlendClient.BIOME_BLEND_RADIUS_MIN + 1;
+                blendRadius <= BetterBiomeBlendClient.BIOME_BLEND_RADIUS_DIRECT_MAX;
+                ++blendRadius)
+            {
+                ErrorStats[] stats = measureRectKernel(namedKernel.kernel, blendRadius);
+
+                success &= reportKernel("rect-" + namedKernel.name, blendRadius, stats, MAX_ERROR_BOUND, MEAN_ERROR_BOUND);
+            }
+        }
+
+        for (int blendRadius = BetterBiomeBlendClient.BIOME_BLEND_RADIUS_MIN;
+            blendRadius <= SummedAreaTable.TABLE_RADIUS;
+            ++blendRadius)
+        {
+            ErrorStats[] stats = measureSummedAreaTable(blendRadius);
+
+            success &= reportKernel("sat", blendRadius, stats, MAX_ERROR_BOUND, MEAN_ERROR_BOUND);
+        }
+
+        System.out.printf("Hierarchical bounds: max error %.4f, mean error %.4f (sRGB steps)%n", HIERARCHICAL_MAX_ERROR_BOUND, HIERARCHICAL_MEAN_ERROR_BOUND);
+
+        for (int blendRadius = BetterBiomeBlendClient.BIOME_BLEND_RADIUS_DIRECT_MAX + 1;
+            blendRadius <= BetterBiomeBlendClient.BIOME_BLEND_RADIUS_MAX;
+            ++blendRadius)
+        {
+            ErrorStats[] boxStats      = measureHierarchical(blendRadius, false);
+            ErrorStats[] gaussianStats = measureHierarchical(blendRadius, true);
+
+            success &= reportKernel("hier",          blendRadius, boxStats,      HIERARCHICAL_MAX_ERROR_BOUND, HIERARCHICAL_MEAN_ERROR_BOUND);
+            success &= reportKernel("hier-gaussian", blendRadius, gaussianStats, HIERARCHICAL_MAX_ERROR_BOUND, HIERARCHICAL_MEAN_ERROR_BOUND);
+        }
+
+        if (!success)
+        {
+            System.exit(1);
+        }
+    }
+}
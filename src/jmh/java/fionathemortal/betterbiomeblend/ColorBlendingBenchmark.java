@@ -0,0 +1,210 @@
+package fionathemortal.betterbiomeblend;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ColorBlendingBenchmark
+{
+    public static final long SEED = 0x5EEDL;
+
+    @Param({"0", "2", "7", "14", "20", "32"})
+    public int blendRadius;
+
+    @Param({SyntheticBiomeColors.UNIFORM, SyntheticBiomeColors.SEAM, SyntheticBiomeColors.PATCHWORK})
+    public String pattern;
+
+    public ColorBlendBuffer blendBuffer;
+    public ColorBlendBuffer gatherBuffer;
+    public int              gatherRadius;
+    public int[]            blendedColors;
+
+    public HierarchicalBlending.GridBuffer grid;
+    public ColorChunk                      hierarchicalColors;
+    public int                             kernelRadius;
+    public int                             gridDim;
+
+    public ColorChunk[] neighborColors;
+    public BiomeChunk[] neighborBiomes;
+
+    public float[] linearColors;
+    public byte[]  convertedColors;
+
+    @Setup(Level.Trial)
+    public void
+    setup()
+    {
+        if (blendRadius < BetterBiomeBlendClient.BIOME_BLEND_RADIUS_MIN ||
+            blendRadius > BetterBiomeBlendClient.BIOME_BLEND_RADIUS_MAX)
+        {
+            throw new IllegalArgumentException("Blend radius out of range: " + blendRadius);
+        }
+
+        blendBuffer   = new ColorBlendBuffer(blendRadius);
+        blendedColors = new int[16 * 16];
+
+        SyntheticBiomeColors.fillBlendBuffer(pattern, SEED, blendBuffer);
+
+        gatherRadius = Math.min(blendRadius, BetterBiomeBlendClient.BIOME_BLEND_RADIUS_DIRECT_MAX);
+        gatherBuffer = new ColorBlendBuffer(gatherRadius);
+
+        kernelRadius = HierarchicalBlending.getKernelCellRadius(blendRadius);
+        gridDim      = HierarchicalBlending.OUTPUT_DIM + 2 * kernelRadius;
+
+        ColorBlendBuffer gridSource = new ColorBlendBuffer(HierarchicalBlending.CELL_SIZE * (HierarchicalBlending.MARGIN_CELLS + kernelRadius));
+
+        SyntheticBiomeColors.fillBlendBuffer(pattern, SEED, gridSource);
+
+        grid               = new HierarchicalBlending.GridBuffer();
+        hierarchicalColors = new ColorChunk();
+
+        SyntheticBiomeColors.fillHierarchicalGrid(gridSource, grid, gridDim);
+
+        neighborColors = new ColorChunk[9];
+        neighborBiomes = new BiomeChunk[9];
+
+        for (int index = 0;
+            index < 9;
+            ++index)
+        {
+            int chunkX = ColorBlending.getNeighborOffsetX(index);
+            int chunkZ = ColorBlending.getNeighborOffsetZ(index);
+
+            int[] colors = new int[16 * 16];
+
+            SyntheticBiomeColors.fillChunk(pattern, chunkX, chunkZ, SEED, colors);
+
+            neighborColors[index] = new ColorChunk();
+
+            neighborColors[index].set(0, colors, 0, 16 * 16);
+            neighborBiomes[index] = new BiomeChunk(new AtomicIntegerArray(1), 0);
+        }
+
+        linearColors    = new float[16 * 16 * 3];
+        convertedColors = new byte[16 * 16 * 3];
+
+        ColorBlending.blendColorsForChunkFloat(blendedColors, blendBuffer);
+
+        for (int index = 0;
+            index < 16 * 16;
+            ++index)
+        {
+            int color = blendedColors[index];
+
+            linearColors[3 * index + 0] = Color.sRGBByteToLinearFloat(Color.RGBAGetR(color));
+            linearColors[3 * index + 1] = Color.sRGBByteToLinearFloat(Color.RGBAGetG(color));
+            linearColors[3 * index + 2] = Color.sRGBByteToLinearFloat(Color.RGBAGetB(color));
+        }
+    }
+
+    @Benchmark
+    public int[]
+    blendColorsForChunkFloat()
+    {
+        ColorBlending.blendColorsForChunkFloat(blendedColors, blendBuffer);
+
+        return blendedColors;
+    }
+
+    @Benchmark
+    public int[]
+    blendColorsForChunkFixedPoint()
+    {
+        ColorBlending.blendColorsForChunkFixedPoint(blendedColors, blendBuffer);
+
+        return blendedColors;
+    }
+
+    @Benchmark
+    public int[]
+    blendColorsForChunkVector()
+    {
+        VectorColorBlending.blendColorsForChunk(blendedColors, blendBuffer);
+
+        return blendedColors;
+    }
+
+    @Benchmark
+    public ColorChunk
+    blendHierarchical()
+    {
+        HierarchicalBlending.getCellWeights(blendRadius, kernelRadius, grid.weights);
+        HierarchicalBlending.blendGrid(grid, kernelRadius, gridDim);
+        HierarchicalBlending.upsample(grid, hierarchicalColors);
+
+        return hierarchicalColors;
+    }
+
+    @Benchmark
+    public byte[]
+    gatherColors()
+    {
+        for (int index = 0;
+            index < 9;
+            ++index)
+        {
+            int chunkX = ColorBlending.getNeighborOffsetX(index);
+            int chunkZ = ColorBlending.getNeighborOffsetZ(index);
+
+            ColorBlending.gatherColors(
+                null,
+                null,
+                chunkX,
+                ColorCaching.COLUMN_SECTION,
+                chunkZ,
+                gatherRadius,
+                index,
+                neighborColors[index],
+                neighborBiomes[index],
+                gatherBuffer.color,
+                true,
+                0);
+        }
+
+        return gatherBuffer.color;
+    }
+
+    @Benchmark
+    public int
+    gatherColorsForCenterChunkSafeRegion()
+    {
+        int result = ColorBlending.gatherColorsForCenterChunkSafeRegion(
+            null,
+            null,
+            0,
+            ColorCaching.COLUMN_SECTION,
+            0,
+            gatherRadius,
+            neighborColors[0],
+            neighborBiomes[0],
+            gatherBuffer.color);
+
+        return result;
+    }
+
+    @Benchmark
+    public byte[]
+    linearFloatTosRGBByte()
+    {
+        for (int index = 0;
+            index < linearColors.length;
+            ++index)
+        {
+            convertedColors[index] = Color.linearFloatTosRGBByte(linearColors[index]);
+        }
+
+        return convertedColors;
+    }
+}
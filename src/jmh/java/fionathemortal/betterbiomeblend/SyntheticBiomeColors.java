@@ -0,0 +1,157 @@
+package fionathemortal.betterbiomeblend;
+
+public final class SyntheticBiomeColors
+{
+    public static final String UNIFORM   = "UNIFORM";
+    public static final String SEAM      = "SEAM";
+    public static final String PATCHWORK = "PATCHWORK";
+
+    public static final int[]
+    grassPalette =
+    {
+        0x91BD59,
+        0x79C05A,
+        0x59C93C,
+        0x88BB67,
+        0xBFB755,
+        0x6A7039,
+        0x86B783,
+        0x80B497
+    };
+
+    public static int
+    hashCell(int cellX, int cellZ, long seed)
+    {
+        long hash = seed;
+
+        hash ^= (long)cellX * 0x9E3779B97F4A7C15L;
+        hash ^= (long)cellZ * 0xC2B2AE3D27D4EB4FL;
+        hash ^= hash >>> 29;
+        hash *= 0xBF58476D1CE4E5B9L;
+        hash ^= hash >>> 32;
+
+        int result = (int)hash & 0x7FFFFFFF;
+
+        return result;
+    }
+
+    public static int
+    getColor(String pattern, int blockX, int blockZ, long seed)
+    {
+        int result;
+
+        if (pattern.equals(UNIFORM))
+        {
+            result = grassPalette[0];
+        }
+        else if (pattern.equals(SEAM))
+        {
+            if (blockX + (blockZ >> 1) < 8)
+            {
+                result = grassPalette[0];
+            }
+            else
+            {
+                result = grassPalette[5];
+            }
+        }
+        else if (pattern.equals(PATCHWORK))
+        {
+            int index = hashCell(blockX >> 2, blockZ >> 2, seed) % grassPalette.length;
+
+            result = grassPalette[index];
+        }
+        else
+        {
+            throw new IllegalArgumentException("Unknown pattern: " + pattern);
+        }
+
+        return result;
+    }
+
+    public static void
+    fillChunk(String pattern, int chunkX, int chunkZ, long seed, int[] result)
+    {
+        for (int z = 0;
+            z < 16;
+            ++z)
+        {
+            for (int x = 0;
+                x < 16;
+                ++x)
+            {
+                int color = getColor(pattern, 16 * chunkX + x, 16 * chunkZ + z, seed);
+
+                result[16 * z + x] = Color.setFullAlpha(color);
+            }
+        }
+    }
+
+    public static void
+    fillBlendBuffer(String pattern, long seed, ColorBlendBuffer result)
+    {
+        int blendRadius = result.blendRadius;
+        int blendDim    = result.outputDim + 2 * blendRadius;
+
+        for (int z = 0;
+            z < blendDim;
+            ++z)
+        {
+            for (int x = 0;
+                x < blendDim;
+                ++x)
+            {
+                int color = getColor(pattern, x - blendRadius, z - blendRadius, seed);
+
+                result.color[3 * (blendDim * z + x) + 0] = (byte)Color.RGBAGetR(color);
+                result.color[3 * (blendDim * z + x) + 1] = (byte)Color.RGBAGetG(color);
+                result.color[3 * (blendDim * z + x) + 2] = (byte)Color.RGBAGetB(color);
+            }
+        }
+    }
+
+    public static void
+    fillHierarchicalGrid(ColorBlendBuffer source, HierarchicalBlending.GridBuffer result, int gridDim)
+    {
+        final int cellSize = HierarchicalBlending.CELL_SIZE;
+        final int cellArea = cellSize * cellSize;
+
+        int sourceDim = cellSize * gridDim;
+
+        for (int gridZ = 0;
+            gridZ < gridDim;
+            ++gridZ)
+        {
+            for (int gridX = 0;
+                gridX < gridDim;
+                ++gridX)
+            {
+                int accumulatedR = 0;
+                int accumulatedG = 0;
+                int accumulatedB = 0;
+
+                for (int z = 0;
+                    z < cellSize;
+                    ++z)
+                {
+                    for (int x = 0;
+                        x < cellSize;
+                        ++x)
+                    {
+                        int index = 3 * (sourceDim * (cellSize * gridZ + z) + (cellSize * gridX + x));
+
+                        accumulatedR += Color.sRGBByteToLinearFixed(0xFF & source.color[index + 0]);
+                        accumulatedG += Color.sRGBByteToLinearFixed(0xFF & source.color[index + 1]);
+                        accumulatedB += Color.sRGBByteToLinearFixed(0xFF & source.color[index + 2]);
+                    }
+                }
+
+                int gridIndex = gridDim * gridZ + gridX;
+
+                result.R[gridIndex] = (accumulatedR + cellArea / 2) / cellArea;
+                result.G[gridIndex] = (accumulatedG + cellArea / 2) / cellArea;
+                result.B[gridIndex] = (accumulatedB + cellArea / 2) / cellArea;
+            }
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package fionathemortal.betterbiomeblend;
+
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.client.color.world.BiomeColors;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.ChunkStatus;
+import net.minecraft.world.level.ColorResolver;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public final class BackgroundBlending
+{
+    public static final class Task implements Runnable
+    {
+        public final World      world;
+        public final int        chunkX;
+        public final int        chunkZ;
+        public final BlendCache blendCache;
+        public final ColorCache colorCache;
+        public final BiomeCache biomeCache;
+        public final ColorCache tableCache;
+        public final ColorCache reducedCache;
+
+        public
+        Task(
+            World      world,
+            int        chunkX,
+            int        chunkZ,
+            BlendCache blendCache,
+            ColorCache colorCache,
+            BiomeCache biomeCache,
+            ColorCache tableCache,
+            ColorCache reducedCache)
+        {
+            this.world        = world;
+            this.chunkX       = chunkX;
+            this.chunkZ       = chunkZ;
+            this.blendCache   = blendCache;
+            this.colorCache   = colorCache;
+            this.biomeCache   = biomeCache;
+            this.tableCache   = tableCache;
+            this.reducedCache = reducedCache;
+        }
+
+        @Override
+        public void
+        run()
+        {
+            try
+            {
+                blendChunkNeighborhood(world, chunkX, chunkZ, blendCache, colorCache, biomeCache, tableCache, reducedCache);
+            }
+            catch (RuntimeException | Error e)
+            {
+                BetterBiomeBlendClient.LOGGER.warn("Background blending failed for chunk {}, {}", chunkX, chunkZ, e);
+            }
+        }
+    }
+
+    public static final boolean ENABLED =
+        Boolean.getBoolean("betterbiomeblend.backgroundBlending");
+
+    public static final int WORKER_COUNT   = Math.max(Runtime.getRuntime().availableProcessors() / 4, 1);
+    public static final int QUEUE_CAPACITY = 1024;
+
+    public static final AtomicInteger workerCounter = new AtomicInteger();
+
+    public static final ThreadFactory
+    workerFactory = (runnable) ->
+    {
+        Thread thread = new Thread(runnable, "Better Biome Blend Worker #" + workerCounter.incrementAndGet());
+
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+
+        return thread;
+    };
+
+    public static final RejectedExecutionHandler
+    discardOldestHandler = (runnable, rejectingExecutor) ->
+    {
+        if (!rejectingExecutor.isShutdown())
+        {
+            Runnable discarded = rejectingExecutor.getQueue().poll();
+
+            if (discarded instanceof Task task)
+            {
+                task.blendCache.metrics.discardedTasks.increment();
+            }
+
+            rejectingExecutor.execute(runnable);
+        }
+    };
+
+    public static final ThreadPoolExecutor
+    executor = new ThreadPoolExecutor(
+        WORKER_COUNT,
+        WORKER_COUNT,
+        0L,
+        TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(QUEUE_CAPACITY),
+        workerFactory,
+        discardOldestHandler);
+
+    public static ColorResolver
+    getColorResolver(int colorType)
+    {
+        ColorResolver result;
+
+        if (colorType == BiomeColorType.GRASS)
+        {
+            result = BiomeColors.GRASS_COLOR;
+        }
+        else if (colorType == BiomeColorType.WATER)
+        {
+            result = BiomeColors.WATER_COLOR;
+        }
+        else
+        {
+            result = BiomeColors.FOLIAGE_COLOR;
+        }
+
+        return result;
+    }
+
+    @SuppressWarnings("resource")
+    public static boolean
+    isCurrentWorld(World world)
+    {
+        boolean result = (MinecraftClient.getInstance().world == world);
+
+        return result;
+    }
+
+    public static void
+    blendChunkNeighborhood(
+        World      world,
+        int        chunkX,
+        int        chunkZ,
+        BlendCache blendCache,
+        ColorCache colorCache,
+        BiomeCache biomeCache,
+        ColorCache tableCache,
+        ColorCache reducedCache)
+    {
+        if (isCurrentWorld(world) &&
+            world.getChunk(chunkX, chunkZ, ChunkStatus.BIOMES, false) != null)
+        {
+            int blendRadius = BetterBiomeBlendClient.getBlendRadiusSetting();
+
+            if (blendRadius > BetterBiomeBlendClient.BIOME_BLEND_RADIUS_MIN)
+            {
+                for (int colorType = BiomeColorType.FIRST;
+                    colorType <= BiomeColorType.LAST;
+                    ++colorType)
+                {
+                    ColorResolver colorResolver = getColorResolver(colorType);
+
+                    ColorBlending.gatherRawColorsToCache(world, colorResolver, colorType, chunkX, chunkZ, colorCache, biomeCache);
+                }
+            }
+
+            for (int index = 0;
+                index < 9;
+                ++index)
+            {
+                int neighborX = ColorBlending.getNeighborPosX(index, chunkX);
+                int neighborZ = ColorBlending.getNeighborPosZ(index, chunkZ);
+
+                if (isCurrentWorld(world) &&
+                    ColorBlending.isNeighborhoodLoaded(world, neighborX, neighborZ))
+                {
+                    for (int colorType = BiomeColorType.FIRST;
+                        colorType <= BiomeColorType.LAST;
+                        ++colorType)
+                    {
+                        ColorResolver colorResolver = getColorResolver(colorType);
+
+                        ColorChunk chunk = ColorCaching.getBlendedColorChunk(
+                            world,
+                            colorResolver,
+                            colorType,
+                            neighborX,
+                            ColorCaching.COLUMN_SECTION,
+                            neighborZ,
+                            blendRadius,
+                            blendCache,
+                            colorCache,
+                            biomeCache,
+                            tableCache,
+                            reducedCache);
+
+                        blendCache.releaseChunk(chunk);
+                    }
+                }
+            }
+        }
+    }
+
+    public static void
+    scheduleChunk(
+        World      world,
+        int        chunkX,
+        int        chunkZ,
+        BlendCache blendCache,
+        ColorCache colorCache,
+        BiomeCache biomeCache,
+        ColorCache tableCache,
+        ColorCache reducedCache)
+    {
+        if (ENABLED)
+        {
+            executor.execute(new Task(world, chunkX, chunkZ, blendCache, colorCache, biomeCache, tableCache, reducedCache));
+        }
+    }
+}
@@ -21,8 +21,9 @@ public final class BetterBiomeBlendClient
 {
     public static final Logger LOGGER = LogManager.getLogger(BetterBiomeBlend.MOD_ID);
 
-    public static final int BIOME_BLEND_RADIUS_MAX = 14;
-    public static final int BIOME_BLEND_RADIUS_MIN = 0;
+    public static final int BIOME_BLEND_RADIUS_MAX        = 32;
+    public static final int BIOME_BLEND_RADIUS_MIN        = 0;
+    public static final int BIOME_BLEND_RADIUS_DIRECT_MAX = 14;
 
     public static final DoubleOption BIOME_BLEND_RADIUS = new DoubleOption(
         "options.biomeBlendRadius",
@@ -107,7 +108,12 @@ public final class BetterBiomeBlendClient
         {
             settings.biomeBlendRadius = newSetting;
 
-            MinecraftClient.getInstance().worldRenderer.reload();
+            if (MinecraftClient.getInstance().world instanceof BlendedColorWorld blendedColorWorld)
+            {
+                blendedColorWorld.betterBiomeBlend$onBlendRadiusChanged(newSetting);
+            }
+
+            IncrementalRemesh.scheduleAroundCamera();
         }
     }
 
@@ -201,4 +207,23 @@ public final class BetterBiomeBlendClient
 
         return result;
     }
+
+    @SuppressWarnings("resource")
+    public static int
+    getRenderDistanceSetting()
+    {
+        int result = 0;
+
+        if (gameOptions == null)
+        {
+            gameOptions = MinecraftClient.getInstance().options;
+        }
+
+        if (gameOptions != null)
+        {
+            result = gameOptions.viewDistance;
+        }
+
+        return result;
+    }
 }
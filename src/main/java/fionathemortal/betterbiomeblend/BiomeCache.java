@@ -2,39 +2,233 @@ package fionathemortal.betterbiomeblend;
 
 import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
 
-import java.util.Arrays;
+import java.util.List;
 import java.util.Stack;
 import java.util.concurrent.locks.ReentrantLock;
 
 public final class BiomeCache
 {
-    public final ReentrantLock                            lock;
-    public final Long2ObjectLinkedOpenHashMap<BiomeChunk> hash;
-    public final Stack<BiomeChunk>                        free;
+    public static final class Shard
+    {
+        public final ReentrantLock                            lock;
+        public final Long2ObjectLinkedOpenHashMap<BiomeChunk> hash;
+        public final Stack<BiomeChunk>                        free;
+        public final int                                      shardIndex;
+        public final CacheMetrics                             metrics;
+
+        public int        capacity;
+        public int        chunkCount;
+        public ChunkArena arena;
+        public int        arenaSlotsUsed;
+
+        public
+        Shard(int capacity, int shardIndex, CacheMetrics metrics)
+        {
+            lock = new ReentrantLock();
+            hash = new Long2ObjectLinkedOpenHashMap<>();
+            free = new Stack<>();
+
+            this.shardIndex = shardIndex;
+            this.capacity   = capacity;
+            this.metrics    = metrics;
+        }
+
+        public BiomeChunk
+        allocateChunk()
+        {
+            if (arena == null || arenaSlotsUsed == arena.slotCount)
+            {
+                arena          = new ChunkArena(ChunkArena.BLOCK_SLOT_COUNT, 0, false);
+                arenaSlotsUsed = 0;
+            }
+
+            BiomeChunk result = new BiomeChunk(arena.refCounts, arenaSlotsUsed);
+
+            result.shardIndex = shardIndex;
+
+            ++arenaSlotsUsed;
+            ++chunkCount;
+
+            metrics.residentChunks.incrementAndGet();
+
+            return result;
+        }
+
+        public void
+        freeChunk(BiomeChunk chunk)
+        {
+            if (chunkCount > capacity)
+            {
+                --chunkCount;
+
+                metrics.residentChunks.decrementAndGet();
+            }
+            else
+            {
+                free.push(chunk);
+            }
+        }
+
+        public BiomeChunk
+        newChunk()
+        {
+            BiomeChunk result = null;
+
+            if (!free.empty())
+            {
+                result = free.pop();
+            }
+            else if (chunkCount < capacity)
+            {
+                result = allocateChunk();
+            }
+            else
+            {
+                for (int attempt = hash.size();
+                    attempt > 0;
+                    --attempt)
+                {
+                    long lastKey = hash.lastLongKey();
+
+                    BiomeChunk chunk = hash.removeLast();
+
+                    if (chunk.getReferenceCount() == 1)
+                    {
+                        chunk.release();
+
+                        metrics.evictions.increment();
+
+                        result = chunk;
+                        break;
+                    }
+                    else
+                    {
+                        hash.putAndMoveToFirst(lastKey, chunk);
+
+                        metrics.evictionSkips.increment();
+                    }
+                }
+
+                if (result == null)
+                {
+                    result = allocateChunk();
+                }
+            }
+
+            return result;
+        }
+
+        public void
+        trim()
+        {
+            while (chunkCount > capacity && !free.empty())
+            {
+                free.pop();
+
+                --chunkCount;
+
+                metrics.residentChunks.decrementAndGet();
+            }
+
+            for (int attempt = hash.size();
+                attempt > 0 && chunkCount > capacity;
+                --attempt)
+            {
+                long lastKey = hash.lastLongKey();
+
+                BiomeChunk chunk = hash.removeLast();
+
+                if (chunk.getReferenceCount() == 1)
+                {
+                    chunk.release();
+                    chunk.markAsInvalid();
+
+                    --chunkCount;
+
+                    metrics.evictions.increment();
+                    metrics.residentChunks.decrementAndGet();
+                }
+                else
+                {
+                    hash.putAndMoveToFirst(lastKey, chunk);
+
+                    metrics.evictionSkips.increment();
+                }
+            }
+        }
+    }
+
+    public final Shard[]      shards;
+    public final int          shardMask;
+    public final CacheMetrics metrics;
+
+    public volatile PersistentColorStore store;
 
     public
     BiomeCache(int count)
     {
-        lock = new ReentrantLock();
-        hash = new Long2ObjectLinkedOpenHashMap<>(count);
-        free = new Stack<>();
+        int shardCount = ColorCaching.getShardCount();
+
+        metrics   = new CacheMetrics("BiomeCache", 16 * 16);
 
-        for (int index = 0;
-            index < count;
-            ++index)
+        shards    = new Shard[shardCount];
+        shardMask = shardCount - 1;
+
+        for (int shardIndex = 0;
+            shardIndex < shardCount;
+            ++shardIndex)
         {
-            free.add(new BiomeChunk());
+            int shardCapacity = ColorCaching.getShardCapacity(count, shardCount, shardIndex);
+
+            shards[shardIndex] = new Shard(shardCapacity, shardIndex, metrics);
+
+            metrics.capacity.addAndGet(shardCapacity);
         }
     }
 
+    public Shard
+    getShard(long key)
+    {
+        int index = ColorCaching.getShardIndex(key, shardMask);
+
+        Shard result = shards[index];
+
+        return result;
+    }
+
     public void
-    releaseChunkWithoutLock(BiomeChunk chunk)
+    setCapacity(int count)
+    {
+        long totalCapacity = 0;
+
+        for (int shardIndex = 0;
+            shardIndex < shards.length;
+            ++shardIndex)
+        {
+            Shard shard = shards[shardIndex];
+
+            shard.lock.lock();
+
+            shard.capacity = ColorCaching.getShardCapacity(count, shards.length, shardIndex);
+
+            shard.trim();
+
+            shard.lock.unlock();
+
+            totalCapacity += shard.capacity;
+        }
+
+        metrics.capacity.set(totalCapacity);
+    }
+
+    public void
+    releaseChunkWithoutLock(Shard shard, BiomeChunk chunk)
     {
         int refCount = chunk.release();
 
         if (refCount == 0)
         {
-            free.push(chunk);
+            shard.freeChunk(chunk);
         }
     }
 
@@ -45,132 +239,183 @@ public final class BiomeCache
 
         if (refCount == 0)
         {
-            lock.lock();
+            Shard shard = shards[chunk.shardIndex];
 
-            free.push(chunk);
+            shard.lock.lock();
 
-            lock.unlock();
+            shard.freeChunk(chunk);
+
+            shard.lock.unlock();
         }
     }
 
     public void
     invalidateAll()
     {
-        lock.lock();
-
-        for (BiomeChunk chunk : hash.values())
+        for (Shard shard : shards)
         {
-            releaseChunkWithoutLock(chunk);
+            shard.lock.lock();
 
-            chunk.markAsInvalid();
-        }
+            for (BiomeChunk chunk : shard.hash.values())
+            {
+                releaseChunkWithoutLock(shard, chunk);
+
+                chunk.markAsInvalid();
+            }
 
-        hash.clear();
+            metrics.invalidations.add(shard.hash.size());
 
-        lock.unlock();
+            shard.hash.clear();
+
+            shard.lock.unlock();
+        }
     }
 
     public void
-    invalidateSmallNeighborhood(int chunkX, int chunkZ)
+    collectUnpersisted(List<PersistentColorStore.BiomeRecord> records)
     {
-        lock.lock();
-
-        for (int chunkIndex = 0;
-            chunkIndex < 9;
-            ++chunkIndex)
+        for (Shard shard : shards)
         {
-            int offsetX = ColorBlending.getNeighborOffsetX(chunkIndex);
-            int offsetZ = ColorBlending.getNeighborOffsetZ(chunkIndex);
+            shard.lock.lock();
 
-            long key = ColorCaching.getChunkKey(chunkX + offsetX, chunkZ + offsetZ, 0);
-
-            if (chunkIndex == 0)
+            for (BiomeChunk chunk : shard.hash.values())
             {
-                BiomeChunk chunk = hash.remove(key);
+                long key = chunk.key;
 
-                if (chunk != null)
+                if (!chunk.isPersisted &&
+                    ColorCaching.getKeySectionY(key) == ColorCaching.COLUMN_SECTION)
                 {
-                    releaseChunkWithoutLock(chunk);
+                    int[] rawIds = chunk.getCompleteRawIds();
 
-                    chunk.markAsInvalid();
+                    if (rawIds != null)
+                    {
+                        records.add(new PersistentColorStore.BiomeRecord(ColorCaching.getKeyChunkX(key), ColorCaching.getKeyChunkZ(key), rawIds));
+
+                        chunk.isPersisted = true;
+                    }
                 }
             }
-            else
+
+            shard.lock.unlock();
+        }
+    }
+
+    public void
+    invalidateKey(long key, int chunkIndex)
+    {
+        Shard shard = getShard(key);
+
+        shard.lock.lock();
+
+        if (chunkIndex == 0)
+        {
+            BiomeChunk chunk = shard.hash.remove(key);
+
+            if (chunk != null)
             {
-                BiomeChunk chunk = hash.get(key);
+                releaseChunkWithoutLock(shard, chunk);
+
+                chunk.markAsInvalid();
+
+                metrics.invalidations.increment();
+            }
+        }
+        else
+        {
+            BiomeChunk chunk = shard.hash.get(key);
 
-                if (chunk != null)
+            if (chunk != null)
+            {
+                int minX = ColorBlending.getNeighborRectMinX(chunkIndex, 2);
+                int minZ = ColorBlending.getNeighborRectMinZ(chunkIndex, 2);
+                int maxX = ColorBlending.getNeighborRectMaxX(chunkIndex, 2);
+                int maxZ = ColorBlending.getNeighborRectMaxZ(chunkIndex, 2);
+
+                for (int z1 = minZ;
+                    z1 < maxZ;
+                    ++z1)
                 {
-                    int minX = ColorBlending.getNeighborRectMinX(chunkIndex, 2);
-                    int minZ = ColorBlending.getNeighborRectMinZ(chunkIndex, 2);
-                    int maxX = ColorBlending.getNeighborRectMaxX(chunkIndex, 2);
-                    int maxZ = ColorBlending.getNeighborRectMaxZ(chunkIndex, 2);
-
-                    for (int z1 = minZ;
-                        z1 < maxZ;
-                        ++z1)
+                    for (int x1 = minX;
+                        x1 < maxX;
+                        ++x1)
                     {
-                        for (int x1 = minX;
-                            x1 < maxX;
-                            ++x1)
-                        {
-                            chunk.data[16 * z1 + x1] = null;
-                        }
+                        chunk.clear(16 * z1 + x1);
                     }
                 }
+
+                chunk.isPersisted = false;
             }
         }
 
-        lock.unlock();
+        shard.lock.unlock();
     }
 
-    public BiomeChunk
-    getOrDefaultInitializeChunk(int chunkX, int chunkZ)
+    public void
+    invalidateSmallNeighborhood(int chunkX, int chunkZ, int minSectionY, int maxSectionY)
     {
-        long key = ColorCaching.getChunkKey(chunkX, chunkZ, 0);
-
-        lock.lock();
+        for (int chunkIndex = 0;
+            chunkIndex < 9;
+            ++chunkIndex)
+        {
+            int offsetX = ColorBlending.getNeighborOffsetX(chunkIndex);
+            int offsetZ = ColorBlending.getNeighborOffsetZ(chunkIndex);
 
-        BiomeChunk result = hash.getAndMoveToFirst(key);
+            invalidateKey(ColorCaching.getChunkKey(chunkX + offsetX, chunkZ + offsetZ, 0), chunkIndex);
 
-        if (result == null)
-        {
-            if (!free.empty())
+            for (int sectionY = minSectionY;
+                sectionY < maxSectionY;
+                ++sectionY)
             {
-                result = free.pop();
+                invalidateKey(ColorCaching.getChunkKey(chunkX + offsetX, sectionY, chunkZ + offsetZ, 0), chunkIndex);
             }
-            else
-            {
-                for (;;)
-                {
-                    long lastKey = hash.lastLongKey();
+        }
+    }
 
-                    result = hash.removeLast();
+    public BiomeChunk
+    getOrDefaultInitializeChunk(int chunkX, int sectionY, int chunkZ)
+    {
+        long key = ColorCaching.getChunkKey(chunkX, sectionY, chunkZ, 0);
 
-                    if (result.getReferenceCount() == 1)
-                    {
-                        result.release();
-                        break;
-                    }
-                    else
-                    {
-                        hash.putAndMoveToFirst(lastKey, result);
-                    }
-                }
-            }
+        Shard shard = getShard(key);
+
+        shard.lock.lock();
+
+        BiomeChunk result = shard.hash.getAndMoveToFirst(key);
+        boolean    isNew  = (result == null);
+
+        if (isNew)
+        {
+            metrics.misses.increment();
+
+            result = shard.newChunk();
 
             result.key = key;
 
-            Arrays.fill(result.data, null);
+            result.clear();
+
+            result.isPersisted = false;
 
             result.acquire();
 
-            hash.putAndMoveToFirst(result.key, result);
+            shard.hash.putAndMoveToFirst(result.key, result);
+        }
+        else
+        {
+            metrics.hits.increment();
         }
 
         result.acquire();
 
-        lock.unlock();
+        shard.lock.unlock();
+
+        PersistentColorStore persistentStore = store;
+
+        if (isNew                   &&
+            persistentStore != null &&
+            sectionY == ColorCaching.COLUMN_SECTION)
+        {
+            result.isPersisted = persistentStore.loadBiomes(chunkX, chunkZ, result);
+        }
 
         return result;
     }
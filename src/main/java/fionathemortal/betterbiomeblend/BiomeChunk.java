@@ -1,28 +1,310 @@
 package fionathemortal.betterbiomeblend;
 
+import net.minecraft.util.registry.Registry;
+import net.minecraft.world.World;
 import net.minecraft.world.biome.Biome;
 
-import java.util.concurrent.atomic.AtomicInteger;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.ReentrantLock;
 
 public final class BiomeChunk
 {
-    public Biome[] data;
+    public static final int UNRESOLVED_INDEX     = 0;
+    public static final int INITIAL_PALETTE_SIZE = 4;
+    public static final int MAX_PALETTE_SIZE     = 256;
+
+    public static final int COLUMN_UNKNOWN   = 0;
+    public static final int COLUMN_UNIFORM   = 1;
+    public static final int COLUMN_DIVERGENT = 2;
+
+    public static final class Storage
+    {
+        public final byte[]  indices;
+        public final Biome[] palette;
+        public final int[]   paletteRawIds;
+
+        public
+        Storage(byte[] indices, Biome[] palette, int[] paletteRawIds)
+        {
+            this.indices       = indices;
+            this.palette       = palette;
+            this.paletteRawIds = paletteRawIds;
+        }
+    }
+
+    public static final VarHandle INDEX_HANDLE = MethodHandles.arrayElementVarHandle(byte[].class);
+
+    public volatile Storage storage;
+    public volatile int     paletteSize;
+    public volatile int     resolvedCount;
+
     public long    key;
+    public int     shardIndex;
+    public boolean isPersisted;
+
+    public volatile int columnUniformity;
 
-    public AtomicInteger refCount = new AtomicInteger();
+    public AtomicIntegerArray refCounts;
+    public int                slot;
+
+    public final ReentrantLock lock = new ReentrantLock();
 
     public
-    BiomeChunk()
+    BiomeChunk(AtomicIntegerArray refCounts, int slot)
     {
-        this.data = new Biome[16 * 16];
+        this.storage       = new Storage(new byte[16 * 16], new Biome[INITIAL_PALETTE_SIZE], new int[INITIAL_PALETTE_SIZE]);
+        this.paletteSize   = 1;
+        this.refCounts     = refCounts;
+        this.slot          = slot;
 
         this.markAsInvalid();
     }
 
+    public static int
+    getBiomeRawId(World world, Biome biome)
+    {
+        Registry<Biome> registry = world.getRegistryManager().get(Registry.BIOME_KEY);
+
+        int result = registry.getRawId(biome);
+
+        return result;
+    }
+
+    public static int
+    getIndex(Storage storage, int index)
+    {
+        int result = 0xFF & (byte)INDEX_HANDLE.getAcquire(storage.indices, index);
+
+        return result;
+    }
+
+    public static void
+    setIndex(Storage storage, int index, int paletteIndex)
+    {
+        INDEX_HANDLE.setRelease(storage.indices, index, (byte)paletteIndex);
+    }
+
+    public Biome
+    get(int index)
+    {
+        Storage local = storage;
+
+        Biome result = local.palette[getIndex(local, index)];
+
+        return result;
+    }
+
+    public int
+    getRawId(int index)
+    {
+        Storage local = storage;
+
+        int result = local.paletteRawIds[getIndex(local, index)];
+
+        return result;
+    }
+
+    public boolean
+    isResolved(int index)
+    {
+        boolean result = (getIndex(storage, index) != UNRESOLVED_INDEX);
+
+        return result;
+    }
+
+    public boolean
+    isComplete()
+    {
+        boolean result = (resolvedCount == 16 * 16);
+
+        return result;
+    }
+
+    public boolean
+    isSingleBiome()
+    {
+        boolean result = (resolvedCount == 16 * 16 && paletteSize == 2);
+
+        return result;
+    }
+
+    public int[]
+    getCompleteRawIds()
+    {
+        int[] result = null;
+
+        if (resolvedCount == 16 * 16)
+        {
+            Storage local = storage;
+
+            result = new int[16 * 16];
+
+            for (int index = 0;
+                index < 16 * 16;
+                ++index)
+            {
+                result[index] = local.paletteRawIds[getIndex(local, index)];
+            }
+        }
+
+        return result;
+    }
+
+    public void
+    compactPalette()
+    {
+        Storage local = storage;
+
+        byte[]  indices       = new byte[16 * 16];
+        Biome[] palette       = new Biome[local.palette.length];
+        int[]   paletteRawIds = new int[local.palette.length];
+        byte[]  remap         = new byte[MAX_PALETTE_SIZE];
+
+        int newSize = 1;
+
+        for (int index = 0;
+            index < 16 * 16;
+            ++index)
+        {
+            int paletteIndex = 0xFF & local.indices[index];
+
+            if (paletteIndex != UNRESOLVED_INDEX)
+            {
+                if (remap[paletteIndex] == 0)
+                {
+                    palette[newSize]       = local.palette[paletteIndex];
+                    paletteRawIds[newSize] = local.paletteRawIds[paletteIndex];
+
+                    remap[paletteIndex] = (byte)newSize++;
+                }
+
+                indices[index] = remap[paletteIndex];
+            }
+        }
+
+        storage     = new Storage(indices, palette, paletteRawIds);
+        paletteSize = newSize;
+    }
+
+    public int
+    getPaletteIndex(World world, Biome biome)
+    {
+        int result = -1;
+
+        Storage local = storage;
+
+        for (int paletteIndex = 1;
+            paletteIndex < paletteSize;
+            ++paletteIndex)
+        {
+            if (local.palette[paletteIndex] == biome)
+            {
+                result = paletteIndex;
+                break;
+            }
+        }
+
+        if (result < 0)
+        {
+            if (paletteSize == MAX_PALETTE_SIZE)
+            {
+                compactPalette();
+
+                local = storage;
+            }
+
+            if (paletteSize < MAX_PALETTE_SIZE)
+            {
+                result = paletteSize;
+
+                if (result == local.palette.length)
+                {
+                    int newLength = Math.min(2 * local.palette.length, MAX_PALETTE_SIZE);
+
+                    local = new Storage(
+                        Arrays.copyOf(local.indices,       16 * 16),
+                        Arrays.copyOf(local.palette,       newLength),
+                        Arrays.copyOf(local.paletteRawIds, newLength));
+                }
+
+                local.palette[result]       = biome;
+                local.paletteRawIds[result] = getBiomeRawId(world, biome);
+
+                storage     = local;
+                paletteSize = result + 1;
+            }
+        }
+
+        return result;
+    }
+
+    public void
+    set(int index, Biome biome, World world)
+    {
+        lock.lock();
+
+        int paletteIndex = getPaletteIndex(world, biome);
+
+        if (paletteIndex > 0)
+        {
+            Storage local = storage;
+
+            if (local.indices[index] == UNRESOLVED_INDEX)
+            {
+                ++resolvedCount;
+            }
+
+            setIndex(local, index, paletteIndex);
+        }
+
+        lock.unlock();
+    }
+
+    public void
+    clear(int index)
+    {
+        lock.lock();
+
+        Storage local = storage;
+
+        if (local.indices[index] != UNRESOLVED_INDEX)
+        {
+            setIndex(local, index, UNRESOLVED_INDEX);
+
+            --resolvedCount;
+        }
+
+        lock.unlock();
+    }
+
+    public void
+    clear()
+    {
+        lock.lock();
+
+        Storage local = storage;
+
+        for (int index = 0;
+            index < 16 * 16;
+            ++index)
+        {
+            setIndex(local, index, UNRESOLVED_INDEX);
+        }
+
+        paletteSize      = 1;
+        resolvedCount    = 0;
+        columnUniformity = COLUMN_UNKNOWN;
+
+        lock.unlock();
+    }
+
     public int
     getReferenceCount()
     {
-        int result = refCount.get();
+        int result = refCounts.get(slot);
 
         return result;
     }
@@ -30,7 +312,7 @@ public final class BiomeChunk
     public int
     release()
     {
-        int result = refCount.decrementAndGet();
+        int result = refCounts.decrementAndGet(slot);
 
         return result;
     }
@@ -38,7 +320,7 @@ public final class BiomeChunk
     public void
     acquire()
     {
-        refCount.incrementAndGet();
+        refCounts.incrementAndGet(slot);
     }
 
     public void
@@ -0,0 +1,326 @@
+package fionathemortal.betterbiomeblend;
+
+import fionathemortal.betterbiomeblend.mixin.AccessorBiomeAccess;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import net.minecraft.world.biome.Biome;
+import net.minecraft.world.biome.source.BiomeAccess;
+import net.minecraft.world.biome.source.BiomeAccessType;
+import net.minecraft.world.biome.source.HorizontalVoronoiBiomeAccessType;
+import net.minecraft.world.biome.source.VoronoiBiomeAccessType;
+
+import java.util.Arrays;
+
+public final class BiomeSampler
+{
+    public static final int QUART_DIM   = 6;
+    public static final int QUART_LAYER = QUART_DIM * QUART_DIM;
+
+    public static final ThreadLocal<BiomeSampler> threadLocalSampler = ThreadLocal.withInitial(BiomeSampler::new);
+
+    public final double[]  jitterX   = new double[2 * QUART_LAYER];
+    public final double[]  jitterY   = new double[2 * QUART_LAYER];
+    public final double[]  jitterZ   = new double[2 * QUART_LAYER];
+    public final boolean[] hasJitter = new boolean[2 * QUART_LAYER];
+
+    public final Biome[] quartBiomes = new Biome[2 * QUART_LAYER];
+
+    public final BlockPos.Mutable blockPos = new BlockPos.Mutable();
+
+    public World               world;
+    public BiomeAccess.Storage storage;
+    public BiomeSampler        nested;
+    public long                seed;
+    public boolean             isActive;
+    public boolean             isInitialized;
+    public boolean             isVoronoi;
+    public int                 blockY;
+    public int                 quartMinX;
+    public int                 quartMinY;
+    public int                 quartMinZ;
+
+    public static BiomeSampler
+    begin(World world, int chunkX, int blockY, int chunkZ)
+    {
+        BiomeSampler result = threadLocalSampler.get();
+
+        while (result.isActive)
+        {
+            if (result.nested == null)
+            {
+                result.nested = new BiomeSampler();
+            }
+
+            result = result.nested;
+        }
+
+        result.isActive      = true;
+        result.world         = world;
+        result.storage       = null;
+        result.isInitialized = false;
+        result.blockY        = blockY;
+        result.quartMinX     = 4 * chunkX - 1;
+        result.quartMinZ     = 4 * chunkZ - 1;
+
+        Arrays.fill(result.hasJitter,   false);
+        Arrays.fill(result.quartBiomes, null);
+
+        return result;
+    }
+
+    public void
+    end()
+    {
+        world    = null;
+        storage  = null;
+        isActive = false;
+    }
+
+    public static long
+    mixSeed(long seed, long salt)
+    {
+        long result = seed * (seed * 6364136223846793005L + 1442695040888963407L) + salt;
+
+        return result;
+    }
+
+    public static double
+    distribute(long seed)
+    {
+        double fraction = (double)((int)Math.floorMod(seed >> 24, 1024L)) / 1024.0;
+
+        double result = (fraction - 0.5) * 0.9;
+
+        return result;
+    }
+
+    public void
+    initialize()
+    {
+        BiomeAccess     biomeAccess = world.getBiomeAccess();
+        BiomeAccessType type        = ((AccessorBiomeAccess)biomeAccess).getType();
+
+        isVoronoi =
+            type == VoronoiBiomeAccessType.INSTANCE ||
+            type == HorizontalVoronoiBiomeAccessType.INSTANCE;
+
+        if (isVoronoi)
+        {
+            storage = ((AccessorBiomeAccess)biomeAccess).getStorage();
+            seed    = ((AccessorBiomeAccess)biomeAccess).getSeed();
+        }
+
+        if (type == HorizontalVoronoiBiomeAccessType.INSTANCE)
+        {
+            blockY = 0;
+        }
+
+        quartMinY = (blockY - 2) >> 2;
+
+        isInitialized = true;
+    }
+
+    public int
+    getQuartIndex(int quartX, int quartY, int quartZ)
+    {
+        int result = QUART_LAYER * (quartY - quartMinY) + QUART_DIM * (quartZ - quartMinZ) + (quartX - quartMinX);
+
+        return result;
+    }
+
+    public void
+    computeJitter(int index, int quartX, int quartY, int quartZ)
+    {
+        long mixed = seed;
+
+        mixed = mixSeed(mixed, quartX);
+        mixed = mixSeed(mixed, quartY);
+        mixed = mixSeed(mixed, quartZ);
+        mixed = mixSeed(mixed, quartX);
+        mixed = mixSeed(mixed, quartY);
+        mixed = mixSeed(mixed, quartZ);
+
+        jitterX[index] = distribute(mixed);
+
+        mixed = mixSeed(mixed, seed);
+
+        jitterY[index] = distribute(mixed);
+
+        mixed = mixSeed(mixed, seed);
+
+        jitterZ[index] = distribute(mixed);
+
+        hasJitter[index] = true;
+    }
+
+    public Biome
+    getBiome(int blockX, int blockZ)
+    {
+        if (!isInitialized)
+        {
+            initialize();
+        }
+
+        Biome result;
+
+        if (isVoronoi)
+        {
+            int offsetX = blockX - 2;
+            int offsetY = blockY - 2;
+            int offsetZ = blockZ - 2;
+
+            int quartX = offsetX >> 2;
+            int quartY = offsetY >> 2;
+            int quartZ = offsetZ >> 2;
+
+            double fractionX = (double)(offsetX & 3) / 4.0;
+            double fractionY = (double)(offsetY & 3) / 4.0;
+            double fractionZ = (double)(offsetZ & 3) / 4.0;
+
+            int    bestCorner   = 0;
+            double bestDistance = 0.0;
+
+            for (int corner = 0;
+                corner < 8;
+                ++corner)
+            {
+                boolean lowX = (corner & 4) == 0;
+                boolean lowY = (corner & 2) == 0;
+                boolean lowZ = (corner & 1) == 0;
+
+                int cornerX = lowX ? quartX : quartX + 1;
+                int cornerY = lowY ? quartY : quartY + 1;
+                int cornerZ = lowZ ? quartZ : quartZ + 1;
+
+                double cornerFractionX = lowX ? fractionX : fractionX - 1.0;
+                double cornerFractionY = lowY ? fractionY : fractionY - 1.0;
+                double cornerFractionZ = lowZ ? fractionZ : fractionZ - 1.0;
+
+                int index = getQuartIndex(cornerX, cornerY, cornerZ);
+
+                if (!hasJitter[index])
+                {
+                    computeJitter(index, cornerX, cornerY, cornerZ);
+                }
+
+                double distanceX = cornerFractionX + jitterX[index];
+                double distanceY = cornerFractionY + jitterY[index];
+                double distanceZ = cornerFractionZ + jitterZ[index];
+
+                double distance = distanceZ * distanceZ + distanceY * distanceY + distanceX * distanceX;
+
+                if (corner == 0 || bestDistance > distance)
+                {
+                    bestCorner   = corner;
+                    bestDistance = distance;
+                }
+            }
+
+            int biomeX = (bestCorner & 4) == 0 ? quartX : quartX + 1;
+            int biomeY = (bestCorner & 2) == 0 ? quartY : quartY + 1;
+            int biomeZ = (bestCorner & 1) == 0 ? quartZ : quartZ + 1;
+
+            int index = getQuartIndex(biomeX, biomeY, biomeZ);
+
+            result = quartBiomes[index];
+
+            if (result == null)
+            {
+                result = storage.getBiomeForNoiseGen(biomeX, biomeY, biomeZ);
+
+                quartBiomes[index] = result;
+            }
+        }
+        else
+        {
+            blockPos.set(blockX, blockY, blockZ);
+
+            result = world.getBiome(blockPos);
+        }
+
+        return result;
+    }
+
+    public static boolean
+    isChunkColumnUniform(BiomeAccess.Storage columnStorage, int chunkX, int chunkZ, int minQuartY, int maxQuartY)
+    {
+        boolean result = true;
+
+        search:
+        for (int quartZ = 4 * chunkZ;
+            quartZ < 4 * chunkZ + 4;
+            ++quartZ)
+        {
+            for (int quartX = 4 * chunkX;
+                quartX < 4 * chunkX + 4;
+                ++quartX)
+            {
+                Biome columnBiome = columnStorage.getBiomeForNoiseGen(quartX, minQuartY, quartZ);
+
+                for (int quartY = minQuartY + 1;
+                    quartY < maxQuartY;
+                    ++quartY)
+                {
+                    if (columnStorage.getBiomeForNoiseGen(quartX, quartY, quartZ) != columnBiome)
+                    {
+                        result = false;
+                        break search;
+                    }
+                }
+            }
+        }
+
+        return result;
+    }
+
+    public static boolean
+    isColumnUniform(World world, int chunkX, int chunkZ, BiomeCache biomeCache)
+    {
+        BiomeAccess     biomeAccess = world.getBiomeAccess();
+        BiomeAccessType type        = ((AccessorBiomeAccess)biomeAccess).getType();
+
+        boolean result = true;
+
+        if (type != HorizontalVoronoiBiomeAccessType.INSTANCE)
+        {
+            BiomeAccess.Storage columnStorage = ((AccessorBiomeAccess)biomeAccess).getStorage();
+
+            int minQuartY = world.getBottomY() >> 2;
+            int maxQuartY = world.getTopY()    >> 2;
+
+            search:
+            for (int offsetZ = -2;
+                offsetZ <= 2;
+                ++offsetZ)
+            {
+                for (int offsetX = -2;
+                    offsetX <= 2;
+                    ++offsetX)
+                {
+                    BiomeChunk biomeChunk = biomeCache.getOrDefaultInitializeChunk(chunkX + offsetX, ColorCaching.COLUMN_SECTION, chunkZ + offsetZ);
+
+                    int uniformity = biomeChunk.columnUniformity;
+
+                    if (uniformity == BiomeChunk.COLUMN_UNKNOWN)
+                    {
+                        boolean isUniform = isChunkColumnUniform(columnStorage, chunkX + offsetX, chunkZ + offsetZ, minQuartY, maxQuartY);
+
+                        uniformity = isUniform ? BiomeChunk.COLUMN_UNIFORM : BiomeChunk.COLUMN_DIVERGENT;
+
+                        biomeChunk.columnUniformity = uniformity;
+                    }
+
+                    biomeCache.releaseChunk(biomeChunk);
+
+                    if (uniformity == BiomeChunk.COLUMN_DIVERGENT)
+                    {
+                        result = false;
+                        break search;
+                    }
+                }
+            }
+        }
+
+        return result;
+    }
+}
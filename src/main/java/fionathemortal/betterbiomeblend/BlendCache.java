@@ -1,45 +1,264 @@
 package fionathemortal.betterbiomeblend;
 
 import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 
 import java.util.ArrayList;
-import java.util.ListIterator;
+import java.util.Iterator;
 import java.util.Stack;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
 public final class BlendCache
 {
-    public final ReentrantLock                            lock;
-    public final Long2ObjectLinkedOpenHashMap<ColorChunk> hash;
-    public final Stack<ColorChunk>                        freeStack;
-    public final ArrayList<ColorChunk>                    generating;
+    public static final class Shard
+    {
+        public final ReentrantLock                            lock;
+        public final Condition                                generated;
+        public final Long2ObjectLinkedOpenHashMap<ColorChunk> hash;
+        public final Stack<ColorChunk>                        freeStack;
+        public final Long2ObjectOpenHashMap<ColorChunk>       generating;
+        public final int                                      shardIndex;
+        public final CacheMetrics                             metrics;
+
+        public final ArrayList<ChunkArena> arenas = new ArrayList<>();
+
+        public int capacity;
+        public int chunkCount;
+
+        public
+        Shard(int capacity, int shardIndex, CacheMetrics metrics)
+        {
+            lock       = new ReentrantLock();
+            generated  = lock.newCondition();
+            hash       = new Long2ObjectLinkedOpenHashMap<>();
+            freeStack  = new Stack<>();
+            generating = new Long2ObjectOpenHashMap<>();
+
+            this.shardIndex = shardIndex;
+            this.capacity   = capacity;
+            this.metrics    = metrics;
+        }
+
+        public ColorChunk
+        allocateChunk()
+        {
+            ChunkArena arena = null;
+
+            for (int index = arenas.size() - 1;
+                index >= 0;
+                --index)
+            {
+                if (arenas.get(index).hasFreeSlot())
+                {
+                    arena = arenas.get(index);
+                    break;
+                }
+            }
+
+            if (arena == null)
+            {
+                arena = new ChunkArena(ChunkArena.BLOCK_SLOT_COUNT, 16 * 16, ChunkArena.OFF_HEAP);
+
+                arenas.add(arena);
+            }
 
-    public int invalidationCounter = 0;
+            ColorChunk result = new ColorChunk(arena, arena.allocateSlot());
+
+            result.shardIndex = shardIndex;
+
+            ++chunkCount;
+
+            metrics.residentChunks.incrementAndGet();
+
+            return result;
+        }
+
+        public void
+        dropChunk(ColorChunk chunk)
+        {
+            ChunkArena arena = chunk.arena;
+
+            arena.freeSlot(chunk.slot);
+
+            if (arena.isEmpty())
+            {
+                arenas.remove(arena);
+            }
+
+            --chunkCount;
+
+            metrics.residentChunks.decrementAndGet();
+        }
+
+        public void
+        freeChunk(ColorChunk chunk)
+        {
+            if (chunkCount > capacity)
+            {
+                dropChunk(chunk);
+            }
+            else
+            {
+                freeStack.push(chunk);
+            }
+        }
+
+        public ColorChunk
+        newChunk()
+        {
+            ColorChunk result = null;
+
+            if (!freeStack.empty())
+            {
+                result = freeStack.pop();
+            }
+            else if (chunkCount < capacity)
+            {
+                result = allocateChunk();
+            }
+            else
+            {
+                for (int attempt = hash.size();
+                    attempt > 0;
+                    --attempt)
+                {
+                    long lastKey = hash.lastLongKey();
+
+                    ColorChunk chunk = hash.removeLast();
+
+                    if (chunk.getReferenceCount() == 1)
+                    {
+                        chunk.release();
+
+                        metrics.evictions.increment();
+
+                        result = chunk;
+                        break;
+                    }
+                    else
+                    {
+                        hash.putAndMoveToFirst(lastKey, chunk);
+
+                        metrics.evictionSkips.increment();
+                    }
+                }
+
+                if (result == null)
+                {
+                    result = allocateChunk();
+                }
+            }
+
+            return result;
+        }
+
+        public void
+        trim()
+        {
+            while (chunkCount > capacity && !freeStack.empty())
+            {
+                dropChunk(freeStack.pop());
+            }
+
+            for (int attempt = hash.size();
+                attempt > 0 && chunkCount > capacity;
+                --attempt)
+            {
+                long lastKey = hash.lastLongKey();
+
+                ColorChunk chunk = hash.removeLast();
+
+                if (chunk.getReferenceCount() == 1)
+                {
+                    chunk.release();
+                    chunk.markAsInvalid();
+
+                    dropChunk(chunk);
+
+                    metrics.evictions.increment();
+                }
+                else
+                {
+                    hash.putAndMoveToFirst(lastKey, chunk);
+
+                    metrics.evictionSkips.increment();
+                }
+            }
+        }
+    }
+
+    public final Shard[]       shards;
+    public final int           shardMask;
+    public final CacheMetrics  metrics;
+    public final AtomicLong    usedBlendRadii = new AtomicLong();
 
     public
     BlendCache(int count)
     {
-        lock       = new ReentrantLock();
-        hash       = new Long2ObjectLinkedOpenHashMap<>(count);
-        freeStack  = new Stack<>();
-        generating = new ArrayList<>();
+        int shardCount = ColorCaching.getShardCount();
+
+        metrics   = new CacheMetrics("BlendCache", 16 * 16 * Integer.BYTES);
+
+        shards    = new Shard[shardCount];
+        shardMask = shardCount - 1;
+
+        for (int shardIndex = 0;
+            shardIndex < shardCount;
+            ++shardIndex)
+        {
+            int shardCapacity = ColorCaching.getShardCapacity(count, shardCount, shardIndex);
+
+            shards[shardIndex] = new Shard(shardCapacity, shardIndex, metrics);
+
+            metrics.capacity.addAndGet(shardCapacity);
+        }
+    }
+
+    public Shard
+    getShard(long key)
+    {
+        int index = ColorCaching.getShardIndex(key, shardMask);
+
+        Shard result = shards[index];
+
+        return result;
+    }
+
+    public void
+    setCapacity(int count)
+    {
+        long totalCapacity = 0;
 
-        for (int index = 0;
-            index < count;
-            ++index)
+        for (int shardIndex = 0;
+            shardIndex < shards.length;
+            ++shardIndex)
         {
-            freeStack.add(new ColorChunk());
+            Shard shard = shards[shardIndex];
+
+            shard.lock.lock();
+
+            shard.capacity = ColorCaching.getShardCapacity(count, shards.length, shardIndex);
+
+            shard.trim();
+
+            shard.lock.unlock();
+
+            totalCapacity += shard.capacity;
         }
+
+        metrics.capacity.set(totalCapacity);
     }
 
     public void
-    releaseChunkWithoutLock(ColorChunk chunk)
+    releaseChunkWithoutLock(Shard shard, ColorChunk chunk)
     {
         int refCount = chunk.release();
 
         if (refCount == 0)
         {
-            freeStack.push(chunk);
+            shard.freeChunk(chunk);
         }
     }
 
@@ -50,193 +269,371 @@ public final class BlendCache
 
         if (refCount == 0)
         {
-            lock.lock();
+            Shard shard = shards[chunk.shardIndex];
+
+            shard.lock.lock();
+
+            shard.freeChunk(chunk);
+
+            shard.lock.unlock();
+        }
+    }
+
+    public void
+    invalidateKey(long key)
+    {
+        Shard shard = getShard(key);
+
+        shard.lock.lock();
+
+        ColorChunk chunk = shard.hash.remove(key);
+
+        if (chunk != null)
+        {
+            releaseChunkWithoutLock(shard, chunk);
+
+            chunk.markAsInvalid();
+
+            metrics.invalidations.increment();
+        }
+        else
+        {
+            ColorChunk generatingChunk = shard.generating.remove(key);
+
+            if (generatingChunk != null)
+            {
+                generatingChunk.markAsInvalid();
+
+                metrics.invalidations.increment();
+            }
+        }
+
+        shard.lock.unlock();
+    }
+
+    public void
+    markKeyDirty(long key, int minX, int minZ, int maxX, int maxZ)
+    {
+        Shard shard = getShard(key);
+
+        shard.lock.lock();
+
+        ColorChunk chunk = shard.hash.get(key);
+
+        if (chunk != null)
+        {
+            chunk.addDirtyRect(minX, minZ, maxX, maxZ);
+
+            chunk.markAsInvalid();
+
+            metrics.invalidations.increment();
+        }
+        else
+        {
+            ColorChunk generatingChunk = shard.generating.remove(key);
 
-            freeStack.push(chunk);
+            if (generatingChunk != null)
+            {
+                generatingChunk.markAsInvalid();
 
-            lock.unlock();
+                metrics.invalidations.increment();
+            }
         }
+
+        shard.lock.unlock();
     }
 
     public void
-    invalidateChunk(int chunkX, int chunkZ)
+    markBlendRadiusUsed(int blendRadius)
     {
-        lock.lock();
+        long radiusBit = 1L << blendRadius;
 
-        ++invalidationCounter;
+        if ((usedBlendRadii.get() & radiusBit) == 0)
+        {
+            usedBlendRadii.accumulateAndGet(radiusBit, (used, bit) -> used | bit);
+        }
+    }
 
-        for (int x = -1;
-            x <= 1;
+    public void
+    invalidateChunk(int chunkX, int chunkZ, int minSectionY, int maxSectionY)
+    {
+        long blendRadii = usedBlendRadii.get();
+
+        for (int blendRadius = 0;
+            blendRadii >>> blendRadius != 0;
+            ++blendRadius)
+        {
+            if ((blendRadii & (1L << blendRadius)) != 0)
+            {
+                invalidateChunkForRadius(chunkX, chunkZ, minSectionY, maxSectionY, blendRadius);
+            }
+        }
+    }
+
+    public void
+    invalidateChunkForRadius(int chunkX, int chunkZ, int minSectionY, int maxSectionY, int blendRadius)
+    {
+        int neighborhoodRadius = HierarchicalBlending.getNeighborhoodRadius(blendRadius);
+
+        for (int x = -neighborhoodRadius;
+            x <= neighborhoodRadius;
             ++x)
         {
-            for (int z = -1;
-                z <= 1;
+            for (int z = -neighborhoodRadius;
+                z <= neighborhoodRadius;
                 ++z)
             {
+                boolean isPartial =
+                    (x != 0 || z != 0)                           &&
+                    ColorBlending.canRegenerateRect(blendRadius) &&
+                    !ColorCaching.SECTION_AWARE;
+
+                int dirtyMargin = Math.min(blendRadius + 2, 16);
+
+                int dirtyMinX = (x < 0) ? 16 - dirtyMargin : 0;
+                int dirtyMinZ = (z < 0) ? 16 - dirtyMargin : 0;
+                int dirtyMaxX = (x > 0) ? dirtyMargin : 16;
+                int dirtyMaxZ = (z > 0) ? dirtyMargin : 16;
+
                 for (int colorType = BiomeColorType.FIRST;
                     colorType < CustomColorResolverCompatibility.nextColorResolverID;
                     ++colorType)
                 {
-                    long key = ColorCaching.getChunkKey(chunkX + x, chunkZ + z, colorType);
+                    long key = ColorCaching.getBlendChunkKey(chunkX + x, ColorCaching.COLUMN_SECTION, chunkZ + z, colorType, blendRadius);
 
-                    ColorChunk chunk = hash.remove(key);
-
-                    if (chunk != null)
+                    if (isPartial)
                     {
-                        releaseChunkWithoutLock(chunk);
-
-                        chunk.markAsInvalid();
+                        markKeyDirty(key, dirtyMinX, dirtyMinZ, dirtyMaxX, dirtyMaxZ);
                     }
                     else
                     {
-                        ListIterator<ColorChunk> iterator = generating.listIterator();
-
-                        while (iterator.hasNext())
-                        {
-                            ColorChunk generatingChunk = iterator.next();
-
-                            if (generatingChunk.key == key)
-                            {
-                                generatingChunk.markAsInvalid();
+                        invalidateKey(key);
+                    }
 
-                                iterator.remove();
-                            }
-                        }
+                    for (int sectionY = minSectionY;
+                        sectionY < maxSectionY;
+                        ++sectionY)
+                    {
+                        invalidateKey(ColorCaching.getBlendChunkKey(chunkX + x, sectionY, chunkZ + z, colorType, blendRadius));
                     }
                 }
             }
         }
-
-        lock.unlock();
     }
 
     public void
     invalidateAll()
     {
-        lock.lock();
+        usedBlendRadii.set(0);
 
-        ++invalidationCounter;
-
-        for (ColorChunk chunk : hash.values())
+        for (Shard shard : shards)
         {
-            releaseChunkWithoutLock(chunk);
+            shard.lock.lock();
 
-            chunk.markAsInvalid();
-        }
+            for (ColorChunk chunk : shard.hash.values())
+            {
+                releaseChunkWithoutLock(shard, chunk);
 
-        hash.clear();
+                chunk.markAsInvalid();
+            }
+
+            metrics.invalidations.add(shard.hash.size());
 
-        lock.unlock();
+            shard.hash.clear();
+
+            shard.lock.unlock();
+        }
     }
 
-    public ColorChunk
-    getChunk(int chunkX, int chunkZ, int colorType)
+    public void
+    retainBlendRadius(int blendRadius)
     {
-        long key = ColorCaching.getChunkKey(chunkX, chunkZ, colorType);
+        usedBlendRadii.set(1L << blendRadius);
 
-        lock.lock();
+        for (Shard shard : shards)
+        {
+            shard.lock.lock();
 
-        ColorChunk result = hash.getAndMoveToFirst(key);
+            Iterator<ColorChunk> iterator = shard.hash.values().iterator();
 
-        if (result != null)
-        {
-            result.acquire();
-        }
+            while (iterator.hasNext())
+            {
+                ColorChunk chunk = iterator.next();
 
-        lock.unlock();
+                if (ColorCaching.getKeyBlendRadius(chunk.key) != blendRadius)
+                {
+                    iterator.remove();
 
-        return result;
+                    releaseChunkWithoutLock(shard, chunk);
+
+                    chunk.markAsInvalid();
+
+                    metrics.invalidations.increment();
+                }
+            }
+
+            shard.lock.unlock();
+        }
     }
 
     public ColorChunk
-    newChunk(int chunkX, int chunkZ, int colorType)
+    getOrNewChunk(int chunkX, int sectionY, int chunkZ, int colorType, int blendRadius)
     {
-        long key = ColorCaching.getChunkKey(chunkX, chunkZ, colorType);
+        long key = ColorCaching.getBlendChunkKey(chunkX, sectionY, chunkZ, colorType, blendRadius);
 
-        lock.lock();
+        Shard shard = getShard(key);
+
+        shard.lock.lock();
 
         ColorChunk result = null;
 
-        if (!freeStack.empty())
-        {
-            result = freeStack.pop();
-        }
-        else
+        while (result == null)
         {
-            for (;;)
+            result = shard.hash.getAndMoveToFirst(key);
+
+            ColorChunk stale = null;
+
+            if (result != null && result.hasDirtyRect())
             {
-                long lastKey = hash.lastLongKey();
+                stale  = shard.hash.remove(key);
+                result = null;
+            }
 
-                result = hash.removeLast();
+            if (result != null)
+            {
+                result.acquire();
 
-                if (result.getReferenceCount() == 1)
+                metrics.hits.increment();
+            }
+            else
+            {
+                result = shard.generating.get(key);
+
+                if (result != null)
                 {
-                    result.release();
-                    break;
+                    result.acquire();
+
+                    metrics.hits.increment();
+
+                    while (result.isGenerating)
+                    {
+                        shard.generated.awaitUninterruptibly();
+                    }
+
+                    if (result.isAbandoned)
+                    {
+                        releaseChunkWithoutLock(shard, result);
+
+                        result = null;
+                    }
                 }
                 else
                 {
-                    hash.putAndMoveToFirst(lastKey, result);
+                    metrics.misses.increment();
+
+                    result = shard.newChunk();
+
+                    if (stale != null)
+                    {
+                        result.copyFrom(stale);
+
+                        releaseChunkWithoutLock(shard, stale);
+                    }
+                    else
+                    {
+                        result.clearDirtyRect();
+                    }
+
+                    result.key = key;
+                    result.isGenerating = true;
+                    result.isAbandoned  = false;
+                    result.acquire();
+
+                    shard.generating.put(key, result);
+
+                    markBlendRadiusUsed(blendRadius);
                 }
             }
         }
 
-        result.key = key;
-        result.invalidationCounter = invalidationCounter;
-        result.acquire();
+        shard.lock.unlock();
+
+        return result;
+    }
+
+    public ColorChunk
+    tryReserveChunk(int chunkX, int sectionY, int chunkZ, int colorType, int blendRadius)
+    {
+        long key = ColorCaching.getBlendChunkKey(chunkX, sectionY, chunkZ, colorType, blendRadius);
+
+        Shard shard = getShard(key);
+
+        shard.lock.lock();
+
+        ColorChunk result = null;
 
-        generating.add(result);
+        if (!shard.hash.containsKey(key) && !shard.generating.containsKey(key))
+        {
+            result = shard.newChunk();
+
+            result.clearDirtyRect();
+
+            result.key = key;
+            result.isGenerating = true;
+            result.isAbandoned  = false;
+            result.acquire();
 
-        lock.unlock();
+            shard.generating.put(key, result);
+
+            markBlendRadiusUsed(blendRadius);
+        }
+
+        shard.lock.unlock();
 
         return result;
     }
 
-    public ColorChunk
+    public void
     putChunk(ColorChunk chunk)
     {
-        ColorChunk result = chunk;
+        Shard shard = shards[chunk.shardIndex];
+
+        shard.lock.lock();
 
-        lock.lock();
+        chunk.isGenerating = false;
 
-        if (generating.remove(chunk))
+        if (shard.generating.remove(chunk.key, chunk))
         {
-            ColorChunk prev = hash.getAndMoveToFirst(chunk.key);
+            shard.hash.putAndMoveToFirst(chunk.key, chunk);
 
-            if (prev == null)
-            {
-                hash.putAndMoveToFirst(chunk.key, chunk);
+            chunk.acquire();
 
-                chunk.acquire();
-            }
-            else
-            {
-                ColorChunk olderChunk;
+            markBlendRadiusUsed(ColorCaching.getKeyBlendRadius(chunk.key));
+        }
 
-                if (chunk.invalidationCounter >= prev.invalidationCounter)
-                {
-                    olderChunk = prev;
+        shard.generated.signalAll();
 
-                    hash.put(chunk.key, chunk);
+        shard.lock.unlock();
+    }
 
-                    chunk.acquire();
-                }
-                else
-                {
-                    olderChunk = chunk;
+    public void
+    abandonChunk(ColorChunk chunk)
+    {
+        Shard shard = shards[chunk.shardIndex];
 
-                    result = prev;
-                    result.acquire();
-                }
+        shard.lock.lock();
 
-                releaseChunkWithoutLock(olderChunk);
+        shard.generating.remove(chunk.key, chunk);
 
-                olderChunk.markAsInvalid();
-            }
-        }
+        chunk.isGenerating = false;
+        chunk.isAbandoned  = true;
 
-        lock.unlock();
+        chunk.markAsInvalid();
 
-        return result;
+        releaseChunkWithoutLock(shard, chunk);
+
+        shard.generated.signalAll();
+
+        shard.lock.unlock();
     }
 }
@@ -0,0 +1,62 @@
+package fionathemortal.betterbiomeblend;
+
+public final class BlendFilter
+{
+    public static final int BOX      = 0;
+    public static final int GAUSSIAN = 1;
+
+    public static final int FIRST = BOX;
+    public static final int LAST  = GAUSSIAN;
+
+    public static final String[]
+    names =
+    {
+        "box",
+        "gaussian"
+    };
+
+    public static final int active = getStartupFilter();
+
+    public static int
+    getStartupFilter()
+    {
+        int result = getFilterFromName(System.getProperty("betterbiomeblend.blendFilter"), BOX);
+
+        return result;
+    }
+
+    public static int
+    getFilterFromName(String name, int defaultFilter)
+    {
+        int result = defaultFilter;
+
+        for (int filter = FIRST;
+            filter <= LAST;
+            ++filter)
+        {
+            if (names[filter].equalsIgnoreCase(name))
+            {
+                result = filter;
+                break;
+            }
+        }
+
+        return result;
+    }
+
+    public static String
+    getName(int filter)
+    {
+        String result = names[filter];
+
+        return result;
+    }
+
+    public static boolean
+    isBoxFilter()
+    {
+        boolean result = (active == BOX);
+
+        return result;
+    }
+}
@@ -0,0 +1,109 @@
+package fionathemortal.betterbiomeblend;
+
+public final class BlendKernel
+{
+    public interface ChunkBlender
+    {
+        void blend(int[] result, ColorBlendBuffer blendBuffer);
+
+        void blendRect(int[] result, ColorBlendBuffer blendBuffer, int minX, int minZ, int maxX, int maxZ);
+    }
+
+    public static final int FLOAT       = 0;
+    public static final int FIXED_POINT = 1;
+    public static final int VECTOR      = 2;
+
+    public static final int FIRST = FLOAT;
+    public static final int LAST  = VECTOR;
+
+    public static final String[]
+    names =
+    {
+        "float",
+        "fixed",
+        "vector"
+    };
+
+    public static final String VECTOR_BLENDER_CLASS = "fionathemortal.betterbiomeblend.VectorColorBlending";
+
+    public static final ChunkBlender vectorBlender = loadVectorBlender();
+
+    public static final boolean VECTOR_AVAILABLE = (vectorBlender != null);
+
+    public static final int active = getStartupKernel();
+
+    public static ChunkBlender
+    loadVectorBlender()
+    {
+        ChunkBlender result = null;
+
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent())
+        {
+            try
+            {
+                result = (ChunkBlender)Class.forName(VECTOR_BLENDER_CLASS).getDeclaredConstructor().newInstance();
+            }
+            catch (ReflectiveOperationException | LinkageError e)
+            {
+                BetterBiomeBlendClient.LOGGER.warn("Could not load the vector blend kernel", e);
+            }
+        }
+
+        return result;
+    }
+
+    public static boolean
+    isAvailable(int kernel)
+    {
+        boolean result = (kernel >= FIRST && kernel <= LAST);
+
+        if (kernel == VECTOR)
+        {
+            result = VECTOR_AVAILABLE;
+        }
+
+        return result;
+    }
+
+    public static int
+    getStartupKernel()
+    {
+        int defaultKernel = VECTOR_AVAILABLE ? VECTOR : FLOAT;
+
+        int result = getKernelFromName(System.getProperty("betterbiomeblend.blendKernel"), defaultKernel);
+
+        if (!isAvailable(result))
+        {
+            result = FLOAT;
+        }
+
+        return result;
+    }
+
+    public static int
+    getKernelFromName(String name, int defaultKernel)
+    {
+        int result = defaultKernel;
+
+        for (int kernel = FIRST;
+            kernel <= LAST;
+            ++kernel)
+        {
+            if (names[kernel].equalsIgnoreCase(name))
+            {
+                result = kernel;
+                break;
+            }
+        }
+
+        return result;
+    }
+
+    public static String
+    getName(int kernel)
+    {
+        String result = names[kernel];
+
+        return result;
+    }
+}
@@ -0,0 +1,7 @@
+package fionathemortal.betterbiomeblend;
+
+public interface BlendedColorRegion
+{
+    void
+    betterBiomeBlend$releaseColorChunks();
+}
@@ -0,0 +1,21 @@
+package fionathemortal.betterbiomeblend;
+
+import net.minecraft.world.level.ColorResolver;
+
+public interface BlendedColorWorld
+{
+    void
+    betterBiomeBlend$getBlendedColorChunk(ColorResolver colorResolver, int chunkX, int blockY, int chunkZ, int[] result);
+
+    void
+    betterBiomeBlend$getBlendedColorRect(ColorResolver colorResolver, int minX, int blockY, int minZ, int maxX, int maxZ, int[] result);
+
+    ColorChunk
+    betterBiomeBlend$acquireBlendedChunk(ColorResolver colorResolver, int colorType, int chunkX, int blockY, int chunkZ);
+
+    void
+    betterBiomeBlend$releaseBlendedChunk(ColorChunk chunk);
+
+    void
+    betterBiomeBlend$onBlendRadiusChanged(int blendRadius);
+}
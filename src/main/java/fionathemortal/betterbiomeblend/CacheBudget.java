@@ -0,0 +1,244 @@
+package fionathemortal.betterbiomeblend;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public final class CacheBudget
+{
+    public static final double PRESSURE_THRESHOLD = 0.85;
+    public static final double RECOVERY_THRESHOLD = 0.6;
+
+    public static final int MAX_PRESSURE_SHIFT = 3;
+    public static final int RECOVERY_INTERVAL  = 20 * 10;
+
+    public static final int DIVERGENT_COLUMN_PERCENT = Integer.getInteger("betterbiomeblend.divergentColumnPercent", 10);
+
+    public static final AtomicInteger pressureShift = new AtomicInteger();
+
+    static
+    {
+        registerMemoryPressureListener();
+    }
+
+    public final BlendCache blendCache;
+    public final ColorCache colorCache;
+    public final BiomeCache biomeCache;
+    public final ColorCache tableCache;
+    public final ColorCache reducedCache;
+
+    public int sectionCount;
+
+    public int appliedRenderDistance = -1;
+    public int appliedBlendRadius    = -1;
+    public int appliedColorTypeCount = -1;
+    public int appliedSectionCount   = -1;
+    public int appliedPressureShift  = -1;
+
+    public int ticksSinceRecoveryCheck;
+
+    public
+    CacheBudget(BlendCache blendCache, ColorCache colorCache, BiomeCache biomeCache, ColorCache tableCache, ColorCache reducedCache)
+    {
+        this.blendCache   = blendCache;
+        this.colorCache   = colorCache;
+        this.biomeCache   = biomeCache;
+        this.tableCache   = tableCache;
+        this.reducedCache = reducedCache;
+
+        update();
+    }
+
+    public static void
+    registerMemoryPressureListener()
+    {
+        boolean thresholdSet = false;
+
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            if (pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported())
+            {
+                long max = pool.getUsage().getMax();
+
+                if (max > 0 && pool.getCollectionUsageThreshold() == 0)
+                {
+                    pool.setCollectionUsageThreshold((long)(max * PRESSURE_THRESHOLD));
+                }
+
+                if (pool.getCollectionUsageThreshold() > 0)
+                {
+                    thresholdSet = true;
+                }
+            }
+        }
+
+        if (thresholdSet && ManagementFactory.getMemoryMXBean() instanceof NotificationEmitter emitter)
+        {
+            emitter.addNotificationListener(CacheBudget::onMemoryNotification, null, null);
+        }
+    }
+
+    public static void
+    onMemoryNotification(Notification notification, Object handback)
+    {
+        if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType()))
+        {
+            pressureShift.updateAndGet(shift -> Math.min(shift + 1, MAX_PRESSURE_SHIFT));
+        }
+    }
+
+    public static boolean
+    isHeapBelowRecoveryThreshold()
+    {
+        boolean result = true;
+
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            if (pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported())
+            {
+                MemoryUsage usage = pool.getCollectionUsage();
+
+                if (usage != null && usage.getMax() > 0 && usage.getUsed() > (long)(usage.getMax() * RECOVERY_THRESHOLD))
+                {
+                    result = false;
+                    break;
+                }
+            }
+        }
+
+        return result;
+    }
+
+    public static int
+    getChunkArea(int renderDistance, int border)
+    {
+        int dim = 2 * (renderDistance + border) + 1;
+
+        int result = dim * dim;
+
+        return result;
+    }
+
+    public static int
+    getBlendCacheCapacity(int renderDistance, int colorTypeCount, int shift)
+    {
+        int result = getBlendCacheCapacity(renderDistance, colorTypeCount, 0, shift);
+
+        return result;
+    }
+
+    public static int
+    getBlendCacheCapacity(int renderDistance, int colorTypeCount, int sectionCount, int shift)
+    {
+        long columnCapacity  = (long)getChunkArea(renderDistance, 0) * colorTypeCount;
+        long sectionCapacity = 0;
+
+        if (ColorCaching.SECTION_AWARE)
+        {
+            sectionCapacity = columnCapacity * sectionCount * DIVERGENT_COLUMN_PERCENT / 100;
+        }
+
+        int result = (int)Math.min((columnCapacity + sectionCapacity) >> shift, Integer.MAX_VALUE);
+
+        return result;
+    }
+
+    public static int
+    getColorCacheCapacity(int renderDistance, int blendRadius, int colorTypeCount, int shift)
+    {
+        int result = 0;
+
+        if (blendRadius > 0)
+        {
+            result = (getChunkArea(renderDistance, 1) * colorTypeCount) >> shift;
+        }
+
+        return result;
+    }
+
+    public static int
+    getBiomeCacheCapacity(int renderDistance, int blendRadius, int shift)
+    {
+        int result = 0;
+
+        if (blendRadius > 0)
+        {
+            result = getChunkArea(renderDistance, 1) >> shift;
+        }
+
+        return result;
+    }
+
+    public static int
+    getTableCacheCapacity(int renderDistance, int blendRadius, int colorTypeCount, int shift)
+    {
+        int result = 0;
+
+        if (SummedAreaTable.ENABLED && !ColorCaching.SECTION_AWARE && blendRadius > 0)
+        {
+            int byteCapacity = (int)Math.min((SummedAreaTable.CACHE_BYTES >> shift) / SummedAreaTable.SLOT_BYTES, Integer.MAX_VALUE);
+
+            result = Math.min(getBlendCacheCapacity(renderDistance, colorTypeCount, shift), byteCapacity);
+        }
+
+        return result;
+    }
+
+    public static int
+    getReducedCacheCapacity(int renderDistance, int blendRadius, int colorTypeCount, int shift)
+    {
+        int result = 0;
+
+        if (HierarchicalBlending.isHierarchicalRadius(blendRadius))
+        {
+            int border = HierarchicalBlending.getNeighborhoodRadius(blendRadius);
+
+            result = (getChunkArea(renderDistance, border) * colorTypeCount) >> shift;
+        }
+
+        return result;
+    }
+
+    public void
+    update()
+    {
+        if (pressureShift.get() > 0 && ++ticksSinceRecoveryCheck >= RECOVERY_INTERVAL)
+        {
+            ticksSinceRecoveryCheck = 0;
+
+            if (isHeapBelowRecoveryThreshold())
+            {
+                pressureShift.updateAndGet(shift -> Math.max(shift - 1, 0));
+            }
+        }
+
+        int renderDistance = BetterBiomeBlendClient.getRenderDistanceSetting();
+        int blendRadius    = BetterBiomeBlendClient.getBlendRadiusSetting();
+        int colorTypeCount = CustomColorResolverCompatibility.nextColorResolverID;
+        int shift          = pressureShift.get();
+
+        if (renderDistance != appliedRenderDistance ||
+            blendRadius    != appliedBlendRadius    ||
+            colorTypeCount != appliedColorTypeCount ||
+            sectionCount   != appliedSectionCount   ||
+            shift          != appliedPressureShift)
+        {
+            blendCache.setCapacity(getBlendCacheCapacity(renderDistance, colorTypeCount, sectionCount, shift));
+            colorCache.setCapacity(getColorCacheCapacity(renderDistance, blendRadius, colorTypeCount, shift));
+            biomeCache.setCapacity(getBiomeCacheCapacity(renderDistance, blendRadius, shift));
+            tableCache.setCapacity(getTableCacheCapacity(renderDistance, blendRadius, colorTypeCount, shift));
+            reducedCache.setCapacity(getReducedCacheCapacity(renderDistance, blendRadius, colorTypeCount, shift));
+
+            appliedRenderDistance = renderDistance;
+            appliedBlendRadius    = blendRadius;
+            appliedColorTypeCount = colorTypeCount;
+            appliedSectionCount   = sectionCount;
+            appliedPressureShift  = shift;
+        }
+    }
+}
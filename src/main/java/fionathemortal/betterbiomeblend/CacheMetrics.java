@@ -0,0 +1,334 @@
+package fionathemortal.betterbiomeblend;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+public final class CacheMetrics implements CacheMetricsMXBean
+{
+    public static final boolean DEBUG_HUD = Boolean.getBoolean("betterbiomeblend.debugHud");
+
+    public static final String DOMAIN = "fionathemortal.betterbiomeblend";
+
+    public static final int LATENCY_BUCKET_COUNT = 24;
+
+    public static final int TRACKED_COLOR_TYPE_COUNT = 8;
+
+    public static volatile CacheMetrics[] published = new CacheMetrics[0];
+
+    public final String name;
+    public final long   bytesPerChunk;
+
+    public final LongAdder hits          = new LongAdder();
+    public final LongAdder misses        = new LongAdder();
+    public final LongAdder evictions     = new LongAdder();
+    public final LongAdder evictionSkips = new LongAdder();
+    public final LongAdder invalidations = new LongAdder();
+    public final LongAdder generations   = new LongAdder();
+
+    public final LongAdder clampedFallbacks = new LongAdder();
+    public final LongAdder discardedTasks   = new LongAdder();
+
+    public final AtomicLong capacity       = new AtomicLong();
+    public final AtomicLong residentChunks = new AtomicLong();
+
+    public final AtomicLongArray latencyHistogram = new AtomicLongArray(TRACKED_COLOR_TYPE_COUNT * LATENCY_BUCKET_COUNT);
+
+    public
+    CacheMetrics(String name, long bytesPerChunk)
+    {
+        this.name          = name;
+        this.bytesPerChunk = bytesPerChunk;
+    }
+
+    public static int
+    getLatencyBucket(long nanos)
+    {
+        // Bucket 0 holds everything below 1024 ns, every further bucket doubles the bound.
+
+        int bucket = 64 - Long.numberOfLeadingZeros(nanos >>> 10);
+
+        int result = Math.min(bucket, LATENCY_BUCKET_COUNT - 1);
+
+        return result;
+    }
+
+    public static long
+    getLatencyBucketUpperBound(int bucket)
+    {
+        long result = (bucket < LATENCY_BUCKET_COUNT - 1) ? (1024L << bucket) : Long.MAX_VALUE;
+
+        return result;
+    }
+
+    public static int
+    getTrackedColorType(int colorType)
+    {
+        int result = Math.min(colorType, TRACKED_COLOR_TYPE_COUNT - 1);
+
+        return result;
+    }
+
+    public void
+    recordGeneration(int colorType, long nanos)
+    {
+        int index = LATENCY_BUCKET_COUNT * getTrackedColorType(colorType) + getLatencyBucket(nanos);
+
+        generations.increment();
+
+        latencyHistogram.incrementAndGet(index);
+    }
+
+    @Override
+    public long
+    getHits()
+    {
+        return hits.sum();
+    }
+
+    @Override
+    public long
+    getMisses()
+    {
+        return misses.sum();
+    }
+
+    @Override
+    public long
+    getEvictions()
+    {
+        return evictions.sum();
+    }
+
+    @Override
+    public long
+    getEvictionSkips()
+    {
+        return evictionSkips.sum();
+    }
+
+    @Override
+    public long
+    getInvalidations()
+    {
+        return invalidations.sum();
+    }
+
+    @Override
+    public long
+    getGenerations()
+    {
+        return generations.sum();
+    }
+
+    @Override
+    public long
+    getClampedFallbacks()
+    {
+        return clampedFallbacks.sum();
+    }
+
+    @Override
+    public long
+    getDiscardedTasks()
+    {
+        return discardedTasks.sum();
+    }
+
+    @Override
+    public long
+    getCapacity()
+    {
+        return capacity.get();
+    }
+
+    @Override
+    public long
+    getResidentChunks()
+    {
+        return residentChunks.get();
+    }
+
+    @Override
+    public long
+    getResidentBytes()
+    {
+        return bytesPerChunk * residentChunks.get();
+    }
+
+    @Override
+    public long[]
+    getLatencyBucketUpperBoundsNanos()
+    {
+        long[] result = new long[LATENCY_BUCKET_COUNT];
+
+        for (int bucket = 0;
+            bucket < LATENCY_BUCKET_COUNT;
+            ++bucket)
+        {
+            result[bucket] = getLatencyBucketUpperBound(bucket);
+        }
+
+        return result;
+    }
+
+    @Override
+    public long[][]
+    getGenerationLatencyHistograms()
+    {
+        long[][] result = new long[TRACKED_COLOR_TYPE_COUNT][LATENCY_BUCKET_COUNT];
+
+        for (int colorType = 0;
+            colorType < TRACKED_COLOR_TYPE_COUNT;
+            ++colorType)
+        {
+            for (int bucket = 0;
+                bucket < LATENCY_BUCKET_COUNT;
+                ++bucket)
+            {
+                result[colorType][bucket] = latencyHistogram.get(LATENCY_BUCKET_COUNT * colorType + bucket);
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    public void
+    reset()
+    {
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+        evictionSkips.reset();
+        invalidations.reset();
+        generations.reset();
+        clampedFallbacks.reset();
+        discardedTasks.reset();
+
+        for (int index = 0;
+            index < latencyHistogram.length();
+            ++index)
+        {
+            latencyHistogram.set(index, 0);
+        }
+    }
+
+    public long
+    getLatencyPercentile(double percentile)
+    {
+        long[] bucketTotals = new long[LATENCY_BUCKET_COUNT];
+        long   total        = 0;
+
+        for (int index = 0;
+            index < latencyHistogram.length();
+            ++index)
+        {
+            long count = latencyHistogram.get(index);
+
+            bucketTotals[index % LATENCY_BUCKET_COUNT] += count;
+
+            total += count;
+        }
+
+        long result    = 0;
+        long threshold = (long)Math.ceil(percentile * (double)total);
+        long seen      = 0;
+
+        for (int bucket = 0;
+            bucket < LATENCY_BUCKET_COUNT && total > 0;
+            ++bucket)
+        {
+            seen += bucketTotals[bucket];
+
+            if (seen >= threshold)
+            {
+                result = getLatencyBucketUpperBound(bucket);
+                break;
+            }
+        }
+
+        return result;
+    }
+
+    public static void
+    publish(CacheMetrics... metrics)
+    {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        for (CacheMetrics metric : metrics)
+        {
+            try
+            {
+                ObjectName objectName = new ObjectName(DOMAIN + ":type=CacheMetrics,name=" + metric.name);
+
+                if (server.isRegistered(objectName))
+                {
+                    server.unregisterMBean(objectName);
+                }
+
+                server.registerMBean(metric, objectName);
+            }
+            catch (JMException e)
+            {
+                BetterBiomeBlendClient.LOGGER.warn("Could not register cache metrics for {}", metric.name, e);
+            }
+        }
+
+        published = metrics;
+    }
+
+    public static void
+    appendDebugLines(List<String> lines)
+    {
+        for (CacheMetrics metric : published)
+        {
+            long hitCount = metric.getHits();
+            long lookups  = hitCount + metric.getMisses();
+            long hitRate  = (lookups > 0) ? (100 * hitCount / lookups) : 0;
+
+            lines.add(String.format(
+                "BBB %s: %d/%d chunks (%d KiB), hit %d%%, evict %d, skip %d, inval %d",
+                metric.name,
+                metric.getResidentChunks(),
+                metric.getCapacity(),
+                metric.getResidentBytes() >> 10,
+                hitRate,
+                metric.getEvictions(),
+                metric.getEvictionSkips(),
+                metric.getInvalidations()));
+
+            if (metric.getGenerations() > 0)
+            {
+                lines.add(String.format(
+                    "BBB %s: %d generated, p50 <%d us, p99 <%d us",
+                    metric.name,
+                    metric.getGenerations(),
+                    metric.getLatencyPercentile(0.50) / 1000,
+                    metric.getLatencyPercentile(0.99) / 1000));
+            }
+
+            if (metric.getClampedFallbacks() > 0)
+            {
+                lines.add(String.format(
+                    "BBB %s: %d clamped to radius %d",
+                    metric.name,
+                    metric.getClampedFallbacks(),
+                    BetterBiomeBlendClient.BIOME_BLEND_RADIUS_DIRECT_MAX));
+            }
+
+            if (metric.getDiscardedTasks() > 0)
+            {
+                lines.add(String.format(
+                    "BBB %s: %d background tasks discarded",
+                    metric.name,
+                    metric.getDiscardedTasks()));
+            }
+        }
+    }
+}
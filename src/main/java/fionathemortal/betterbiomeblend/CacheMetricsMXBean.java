@@ -0,0 +1,32 @@
+package fionathemortal.betterbiomeblend;
+
+public interface CacheMetricsMXBean
+{
+    long getHits();
+
+    long getMisses();
+
+    long getEvictions();
+
+    long getEvictionSkips();
+
+    long getInvalidations();
+
+    long getGenerations();
+
+    long getClampedFallbacks();
+
+    long getDiscardedTasks();
+
+    long getCapacity();
+
+    long getResidentChunks();
+
+    long getResidentBytes();
+
+    long[] getLatencyBucketUpperBoundsNanos();
+
+    long[][] getGenerationLatencyHistograms();
+
+    void reset();
+}
@@ -0,0 +1,108 @@
+package fionathemortal.betterbiomeblend;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+public final class ChunkArena
+{
+    public static final boolean OFF_HEAP = Boolean.getBoolean("betterbiomeblend.offHeapCaches");
+
+    public static final int BLOCK_SLOT_COUNT = 64;
+
+    public final AtomicIntegerArray refCounts;
+    public final ByteBuffer         memory;
+    public final int                slotCount;
+    public final int                slotSize;
+    public final int[]              freeSlots;
+
+    public int slotsUsed;
+    public int freeSlotCount;
+
+    public
+    ChunkArena(int slotCount, int slotSize, boolean offHeap)
+    {
+        this.refCounts = new AtomicIntegerArray(slotCount);
+        this.slotCount = slotCount;
+        this.slotSize  = slotSize;
+        this.freeSlots = new int[slotCount];
+
+        if (offHeap)
+        {
+            this.memory = ByteBuffer.allocateDirect(Integer.BYTES * slotSize * slotCount);
+        }
+        else
+        {
+            this.memory = null;
+        }
+    }
+
+    public boolean
+    hasFreeSlot()
+    {
+        boolean result = (slotsUsed < slotCount || freeSlotCount > 0);
+
+        return result;
+    }
+
+    public int
+    allocateSlot()
+    {
+        int result;
+
+        if (freeSlotCount > 0)
+        {
+            result = freeSlots[--freeSlotCount];
+        }
+        else
+        {
+            result = slotsUsed++;
+        }
+
+        return result;
+    }
+
+    public void
+    freeSlot(int slot)
+    {
+        freeSlots[freeSlotCount++] = slot;
+    }
+
+    public boolean
+    isEmpty()
+    {
+        boolean result = (freeSlotCount == slotsUsed);
+
+        return result;
+    }
+
+    public IntBuffer
+    getSlotBuffer(int slot)
+    {
+        IntBuffer result = null;
+
+        if (memory != null)
+        {
+            int byteSize   = Integer.BYTES * slotSize;
+            int byteOffset = byteSize * slot;
+
+            result = memory.slice(byteOffset, byteSize).order(ByteOrder.nativeOrder()).asIntBuffer();
+        }
+
+        return result;
+    }
+
+    public int[]
+    getSlotArray(int slot)
+    {
+        int[] result = null;
+
+        if (memory == null)
+        {
+            result = new int[slotSize];
+        }
+
+        return result;
+    }
+}
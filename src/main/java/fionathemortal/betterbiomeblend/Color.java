@@ -2,8 +2,14 @@ package fionathemortal.betterbiomeblend;
 
 public final class Color
 {
+    public static final int LINEAR_FIXED_BITS = 16;
+    public static final int LINEAR_FIXED_ONE  = (1 << LINEAR_FIXED_BITS) - 1;
+
     public static final float[] sRGBLUT = new float[256];
 
+    public static final int[]  sRGBFixedLUT   = new int[256];
+    public static final byte[] linearFixedLUT = new byte[LINEAR_FIXED_ONE + 1];
+
     static
     {
         for (int i = 0;
@@ -12,6 +18,16 @@ public final class Color
         {
             float color = byteToNormalizedFloat(i);
             sRGBLUT[i] = sRGBToLinear(color);
+
+            sRGBFixedLUT[i] = Math.round(sRGBLUT[i] * (float)LINEAR_FIXED_ONE);
+        }
+
+        for (int i = 0;
+            i <= LINEAR_FIXED_ONE;
+            ++i)
+        {
+            float color = (float)i / (float)LINEAR_FIXED_ONE;
+            linearFixedLUT[i] = linearFloatTosRGBByte(color);
         }
     }
 
@@ -27,6 +43,14 @@ public final class Color
         return result;
     }
 
+    public static int
+    setFullAlpha(int color)
+    {
+        int result = color | (0xFF << 24);
+
+        return result;
+    }
+
     public static int
     RGBAGetR(int color)
     {
@@ -118,4 +142,20 @@ public final class Color
 
         return result;
     }
+
+    public static int
+    sRGBByteToLinearFixed(int color)
+    {
+        int result = sRGBFixedLUT[color];
+
+        return result;
+    }
+
+    public static byte
+    linearFixedTosRGBByte(int color)
+    {
+        byte result = linearFixedLUT[color];
+
+        return result;
+    }
 }
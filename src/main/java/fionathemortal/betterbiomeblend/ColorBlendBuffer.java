@@ -3,23 +3,93 @@ package fionathemortal.betterbiomeblend;
 public final class ColorBlendBuffer
 {
     public int blendRadius;
+    public int outputDim;
 
     public byte[] color;
+    public int[]  blended;
 
     public float[] R;
     public float[] G;
     public float[] B;
 
+    public int[] fixedR;
+    public int[] fixedG;
+    public int[] fixedB;
+
+    public float[] linearR;
+    public float[] linearG;
+    public float[] linearB;
+
+    public float[] prefixR;
+    public float[] prefixG;
+    public float[] prefixB;
+
+    public int[] rowR;
+    public int[] rowG;
+    public int[] rowB;
+
     public ColorBlendBuffer(int blendRadius)
     {
-        int genCacheDim = 16 + 2 * blendRadius;
+        this(blendRadius, 16);
+    }
+
+    public ColorBlendBuffer(int blendRadius, int outputDim)
+    {
+        int genCacheDim = outputDim + 2 * blendRadius;
 
         this.blendRadius = blendRadius;
+        this.outputDim   = outputDim;
 
-        this.color = new byte[3 * genCacheDim * genCacheDim];
+        this.color   = new byte[3 * genCacheDim * genCacheDim];
+        this.blended = new int[outputDim * outputDim];
 
         this.R = new float[genCacheDim];
         this.G = new float[genCacheDim];
         this.B = new float[genCacheDim];
+
+        this.fixedR = new int[genCacheDim];
+        this.fixedG = new int[genCacheDim];
+        this.fixedB = new int[genCacheDim];
+
+    }
+
+    public void
+    allocateLinearPlanes()
+    {
+        if (linearR == null)
+        {
+            int genCacheDim = outputDim + 2 * blendRadius;
+
+            linearR = new float[genCacheDim * genCacheDim];
+            linearG = new float[genCacheDim * genCacheDim];
+            linearB = new float[genCacheDim * genCacheDim];
+        }
+    }
+
+    public void
+    allocatePrefixSum()
+    {
+        if (prefixR == null)
+        {
+            prefixR = new float[outputDim + 2 * blendRadius + 1];
+        }
+    }
+
+    public void
+    allocateRowSums()
+    {
+        allocatePrefixSum();
+
+        if (rowR == null)
+        {
+            int genCacheDim = outputDim + 2 * blendRadius;
+
+            prefixG = new float[genCacheDim + 1];
+            prefixB = new float[genCacheDim + 1];
+
+            rowR = new int[outputDim];
+            rowG = new int[outputDim];
+            rowB = new int[outputDim];
+        }
     }
 }
@@ -1,19 +1,15 @@
 package fionathemortal.betterbiomeblend;
 
-import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.World;
 import net.minecraft.world.biome.Biome;
 import net.minecraft.world.chunk.Chunk;
 import net.minecraft.world.chunk.ChunkStatus;
 import net.minecraft.world.level.ColorResolver;
 
-import java.util.Stack;
-import java.util.concurrent.locks.ReentrantLock;
-
 public final class ColorBlending
 {
-    public static final ReentrantLock           freeBlendBuffersLock = new ReentrantLock();
-    public static final Stack<ColorBlendBuffer> freeBlendBuffers     = new Stack<>();
+    public static final ThreadLocal<ColorBlendBuffer[]> threadLocalBlendBuffers =
+        ThreadLocal.withInitial(() -> new ColorBlendBuffer[BetterBiomeBlendClient.BIOME_BLEND_RADIUS_DIRECT_MAX + 1]);
 
     public static final byte[]
     neighborOffsets =
@@ -134,22 +130,11 @@ public final class ColorBlending
     public static ColorBlendBuffer
     acquireBlendBuffer(int blendRadius)
     {
-        ColorBlendBuffer result = null;
-
-        freeBlendBuffersLock.lock();
-
-        while (!freeBlendBuffers.empty())
-        {
-            ColorBlendBuffer buffer = freeBlendBuffers.pop();
+        ColorBlendBuffer[] buffers = threadLocalBlendBuffers.get();
 
-            if (buffer.blendRadius == blendRadius)
-            {
-                result = buffer;
-                break;
-            }
-        }
+        ColorBlendBuffer result = buffers[blendRadius];
 
-        freeBlendBuffersLock.unlock();
+        buffers[blendRadius] = null;
 
         if (result == null)
         {
@@ -162,28 +147,20 @@ public final class ColorBlending
     public static void
     releaseBlendBuffer(ColorBlendBuffer cache)
     {
-        freeBlendBuffersLock.lock();
+        ColorBlendBuffer[] buffers = threadLocalBlendBuffers.get();
 
-        int blendRadius = BetterBiomeBlendClient.getBlendRadiusSetting();
-
-        if (cache.blendRadius == blendRadius)
-        {
-            freeBlendBuffers.push(cache);
-        }
-
-        freeBlendBuffersLock.unlock();
+        buffers[cache.blendRadius] = cache;
     }
 
     public static void
     gatherRawColorsForChunk(
         World         world,
-        byte[]        result,
+        ColorChunk    result,
         int           chunkX,
+        int           sectionY,
         int           chunkZ,
         ColorResolver colorResolver)
     {
-        BlockPos.Mutable blockPos = new BlockPos.Mutable();
-
         int blockX = 16 * chunkX;
         int blockZ = 16 * chunkZ;
 
@@ -194,34 +171,37 @@ public final class ColorBlending
 
         double zF64 = baseZF64;
 
-        for (int z = 0;
-            z < 16;
-            ++z)
-        {
-            double xF64 = baseXF64;
+        BiomeSampler biomeSampler = BiomeSampler.begin(world, chunkX, ColorCaching.getSampleBlockY(sectionY), chunkZ);
 
-            for (int x = 0;
-                x < 16;
-                ++x)
+        try
+        {
+            for (int z = 0;
+                z < 16;
+                ++z)
             {
-                blockPos.set(blockX + x, 0, blockZ + z);
+                double xF64 = baseXF64;
 
-                int color = colorResolver.getColor(world.getBiome(blockPos), xF64, zF64);
+                for (int x = 0;
+                    x < 16;
+                    ++x)
+                {
+                    Biome biome = biomeSampler.getBiome(blockX + x, blockZ + z);
 
-                int colorR = Color.RGBAGetR(color);
-                int colorG = Color.RGBAGetG(color);
-                int colorB = Color.RGBAGetB(color);
+                    int color = colorResolver.getColor(biome, xF64, zF64);
 
-                result[3 * dstIndex + 0] = (byte)colorR;
-                result[3 * dstIndex + 1] = (byte)colorG;
-                result[3 * dstIndex + 2] = (byte)colorB;
+                    result.set(dstIndex, Color.setFullAlpha(color));
 
-                ++dstIndex;
+                    ++dstIndex;
 
-                xF64 += 1.0;
-            }
+                    xF64 += 1.0;
+                }
 
-            zF64 += 1.0;
+                zF64 += 1.0;
+            }
+        }
+        finally
+        {
+            biomeSampler.end();
         }
     }
 
@@ -272,33 +252,120 @@ public final class ColorBlending
         }
     }
 
+    public static boolean
+    isNeighborRectInWindow(int neighborIndex, int blendRadius, int windowMinX, int windowMinZ, int windowMaxX, int windowMaxZ)
+    {
+        int blendMinX = getNeighborRectBlendBufferMinX(neighborIndex, blendRadius);
+        int blendMinZ = getNeighborRectBlendBufferMinZ(neighborIndex, blendRadius);
+        int blendMaxX = blendMinX + getNeighborRectMaxX(neighborIndex, blendRadius) - getNeighborRectMinX(neighborIndex, blendRadius);
+        int blendMaxZ = blendMinZ + getNeighborRectMaxZ(neighborIndex, blendRadius) - getNeighborRectMinZ(neighborIndex, blendRadius);
+
+        boolean result =
+            blendMinX  < windowMaxX &&
+            windowMinX < blendMaxX  &&
+            blendMinZ  < windowMaxZ &&
+            windowMinZ < blendMaxZ;
+
+        return result;
+    }
+
     public static void
     gatherColors(
         World         world,
         ColorResolver colorResolver,
         int           chunkX,
+        int           sectionY,
         int           chunkZ,
         int           blendRadius,
         int           neighborIndex,
-        byte[]        cachedColors,
-        Biome[]       cachedBiomes,
+        ColorChunk    cachedColors,
+        BiomeChunk    cachedBiomes,
         byte[]        blendBuffer,
         boolean       genNewColors,
         int           defaultColor)
     {
-        BlockPos.Mutable blockPos = new BlockPos.Mutable();
+        final int blendDim = 16 + 2 * blendRadius;
 
-        final int cacheMinX = getNeighborRectMinX(neighborIndex, blendRadius);
-        final int cacheMinZ = getNeighborRectMinZ(neighborIndex, blendRadius);
-        final int cacheMaxX = getNeighborRectMaxX(neighborIndex, blendRadius);
-        final int cacheMaxZ = getNeighborRectMaxZ(neighborIndex, blendRadius);
+        gatherColors(world, colorResolver, chunkX, sectionY, chunkZ, blendRadius, neighborIndex, cachedColors, cachedBiomes, blendBuffer, genNewColors, defaultColor, 0, 0, blendDim, blendDim);
+    }
 
-        final int blendMinX = getNeighborRectBlendBufferMinX(neighborIndex, blendRadius);
-        final int blendMinZ = getNeighborRectBlendBufferMinZ(neighborIndex, blendRadius);
+    public static void
+    gatherColors(
+        World         world,
+        ColorResolver colorResolver,
+        int           chunkX,
+        int           sectionY,
+        int           chunkZ,
+        int           blendRadius,
+        int           neighborIndex,
+        ColorChunk    cachedColors,
+        BiomeChunk    cachedBiomes,
+        byte[]        blendBuffer,
+        boolean       genNewColors,
+        int           defaultColor,
+        int           windowMinX,
+        int           windowMinZ,
+        int           windowMaxX,
+        int           windowMaxZ)
+    {
+        final int rectMinX = getNeighborRectMinX(neighborIndex, blendRadius);
+        final int rectMinZ = getNeighborRectMinZ(neighborIndex, blendRadius);
+
+        final int blendRectMinX = getNeighborRectBlendBufferMinX(neighborIndex, blendRadius);
+        final int blendRectMinZ = getNeighborRectBlendBufferMinZ(neighborIndex, blendRadius);
+
+        final int cacheMinX = Math.max(rectMinX, rectMinX + windowMinX - blendRectMinX);
+        final int cacheMinZ = Math.max(rectMinZ, rectMinZ + windowMinZ - blendRectMinZ);
+        final int cacheMaxX = Math.min(getNeighborRectMaxX(neighborIndex, blendRadius), rectMinX + windowMaxX - blendRectMinX);
+        final int cacheMaxZ = Math.min(getNeighborRectMaxZ(neighborIndex, blendRadius), rectMinZ + windowMaxZ - blendRectMinZ);
+
+        final int blendMinX = blendRectMinX + (cacheMinX - rectMinX);
+        final int blendMinZ = blendRectMinZ + (cacheMinZ - rectMinZ);
 
-        final int cacheDim = 16;
         final int blendDim = 16 + 2 * blendRadius;
 
+        gatherColorsForRect(
+            world,
+            colorResolver,
+            chunkX,
+            sectionY,
+            chunkZ,
+            cacheMinX,
+            cacheMinZ,
+            cacheMaxX,
+            cacheMaxZ,
+            cachedColors,
+            cachedBiomes,
+            blendBuffer,
+            blendDim,
+            blendMinX,
+            blendMinZ,
+            genNewColors,
+            defaultColor);
+    }
+
+    public static void
+    gatherColorsForRect(
+        World         world,
+        ColorResolver colorResolver,
+        int           chunkX,
+        int           sectionY,
+        int           chunkZ,
+        int           cacheMinX,
+        int           cacheMinZ,
+        int           cacheMaxX,
+        int           cacheMaxZ,
+        ColorChunk    cachedColors,
+        BiomeChunk    cachedBiomes,
+        byte[]        blendBuffer,
+        int           blendDim,
+        int           blendMinX,
+        int           blendMinZ,
+        boolean       genNewColors,
+        int           defaultColor)
+    {
+        final int cacheDim = 16;
+
         final int blockX = 16 * chunkX;
         final int blockZ = 16 * chunkZ;
 
@@ -310,72 +377,69 @@ public final class ColorBlending
 
         double zF64 = baseZF64;
 
-        for (int z = cacheMinZ;
-            z < cacheMaxZ;
-            ++z)
-        {
-            int cacheIndex = cacheLine;
-            int blendIndex = blendLine;
-
-            double xF64 = baseXF64;
+        BiomeSampler biomeSampler = BiomeSampler.begin(world, chunkX, ColorCaching.getSampleBlockY(sectionY), chunkZ);
 
-            for (int x = cacheMinX;
-                x < cacheMaxX;
-                ++x)
+        try
+        {
+            for (int z = cacheMinZ;
+                z < cacheMaxZ;
+                ++z)
             {
-                int cachedR = 0xFF & cachedColors[3 * cacheIndex + 0];
-                int cachedG = 0xFF & cachedColors[3 * cacheIndex + 1];
-                int cachedB = 0xFF & cachedColors[3 * cacheIndex + 2];
+                int cacheIndex = cacheLine;
+                int blendIndex = blendLine;
 
-                int commonBits = cachedR & cachedG & cachedB;
+                double xF64 = baseXF64;
 
-                if (commonBits == 0xFF)
+                for (int x = cacheMinX;
+                    x < cacheMaxX;
+                    ++x)
                 {
-                    if (genNewColors)
-                    {
-                        Biome biome = cachedBiomes[cacheIndex];
+                    int cachedColor = cachedColors.get(cacheIndex);
 
-                        if (biome == null)
+                    if (!ColorChunk.isValidColor(cachedColor))
+                    {
+                        if (genNewColors)
                         {
-                            blockPos.set(blockX + x, 0, blockZ + z);
+                            Biome biome = cachedBiomes.get(cacheIndex);
 
-                            biome = world.getBiome(blockPos);
+                            if (biome == null)
+                            {
+                                biome = biomeSampler.getBiome(blockX + x, blockZ + z);
 
-                            cachedBiomes[cacheIndex] = biome;
-                        }
+                                cachedBiomes.set(cacheIndex, biome, world);
+                            }
 
-                        int color = colorResolver.getColor(biome, xF64, zF64);
+                            int color = colorResolver.getColor(biome, xF64, zF64);
 
-                        cachedR = Color.RGBAGetR(color);
-                        cachedG = Color.RGBAGetG(color);
-                        cachedB = Color.RGBAGetB(color);
+                            cachedColor = Color.setFullAlpha(color);
 
-                        cachedColors[3 * cacheIndex + 0] = (byte)cachedR;
-                        cachedColors[3 * cacheIndex + 1] = (byte)cachedG;
-                        cachedColors[3 * cacheIndex + 2] = (byte)cachedB;
-                    }
-                    else
-                    {
-                        cachedR = Color.RGBAGetR(defaultColor);
-                        cachedG = Color.RGBAGetG(defaultColor);
-                        cachedB = Color.RGBAGetB(defaultColor);
+                            cachedColors.set(cacheIndex, cachedColor);
+                        }
+                        else
+                        {
+                            cachedColor = defaultColor;
+                        }
                     }
-                }
 
-                blendBuffer[blendIndex + 0] = (byte)cachedR;
-                blendBuffer[blendIndex + 1] = (byte)cachedG;
-                blendBuffer[blendIndex + 2] = (byte)cachedB;
+                    blendBuffer[blendIndex + 0] = (byte)Color.RGBAGetR(cachedColor);
+                    blendBuffer[blendIndex + 1] = (byte)Color.RGBAGetG(cachedColor);
+                    blendBuffer[blendIndex + 2] = (byte)Color.RGBAGetB(cachedColor);
 
-                cacheIndex += 1;
-                blendIndex += 3;
+                    cacheIndex += 1;
+                    blendIndex += 3;
 
-                xF64 += 1.0;
-            }
+                    xF64 += 1.0;
+                }
 
-            blendLine += 3 * blendDim;
-            cacheLine += cacheDim;
+                blendLine += 3 * blendDim;
+                cacheLine += cacheDim;
 
-            zF64 += 1.0;
+                zF64 += 1.0;
+            }
+        }
+        finally
+        {
+            biomeSampler.end();
         }
     }
 
@@ -384,14 +448,13 @@ public final class ColorBlending
         World         world,
         ColorResolver colorResolver,
         int           chunkX,
+        int           sectionY,
         int           chunkZ,
         int           blendRadius,
-        byte[]        cachedColors,
-        Biome[]       cachedBiomes,
+        ColorChunk    cachedColors,
+        BiomeChunk    cachedBiomes,
         byte[]        blendBuffer)
     {
-        BlockPos.Mutable blockPos = new BlockPos.Mutable();
-
         final int cacheMinX = getNeighborRectMinX(0, blendRadius) + 2;
         final int cacheMinZ = getNeighborRectMinZ(0, blendRadius) + 2;
         final int cacheMaxX = getNeighborRectMaxX(0, blendRadius) - 2;
@@ -418,67 +481,70 @@ public final class ColorBlending
 
         double zF64 = baseZF64;
 
-        for (int z = cacheMinZ;
-            z < cacheMaxZ;
-            ++z)
-        {
-            int cacheIndex = cacheLine;
-            int blendIndex = blendLine;
-
-            double xF64 = baseXF64;
+        BiomeSampler biomeSampler = BiomeSampler.begin(world, chunkX, ColorCaching.getSampleBlockY(sectionY), chunkZ);
 
-            for (int x = cacheMinX;
-                x < cacheMaxX;
-                ++x)
+        try
+        {
+            for (int z = cacheMinZ;
+                z < cacheMaxZ;
+                ++z)
             {
-                int cachedR = 0xFF & cachedColors[3 * cacheIndex + 0];
-                int cachedG = 0xFF & cachedColors[3 * cacheIndex + 1];
-                int cachedB = 0xFF & cachedColors[3 * cacheIndex + 2];
+                int cacheIndex = cacheLine;
+                int blendIndex = blendLine;
 
-                int commonBits = cachedR & cachedG & cachedB;
+                double xF64 = baseXF64;
 
-                if (commonBits == 0xFF)
+                for (int x = cacheMinX;
+                    x < cacheMaxX;
+                    ++x)
                 {
-                    Biome biome = cachedBiomes[cacheIndex];
+                    int cachedColor = cachedColors.get(cacheIndex);
 
-                    if (biome == null)
+                    if (!ColorChunk.isValidColor(cachedColor))
                     {
-                        blockPos.set(blockX + x, 0, blockZ + z);
+                        Biome biome = cachedBiomes.get(cacheIndex);
+
+                        if (biome == null)
+                        {
+                            biome = biomeSampler.getBiome(blockX + x, blockZ + z);
 
-                        biome = world.getBiome(blockPos);
+                            cachedBiomes.set(cacheIndex, biome, world);
+                        }
 
-                        cachedBiomes[cacheIndex] = biome;
-                    }
+                        int color = colorResolver.getColor(biome, xF64, zF64);
 
-                    int color = colorResolver.getColor(biome, xF64, zF64);
+                        cachedColor = Color.setFullAlpha(color);
 
-                    cachedR = Color.RGBAGetR(color);
-                    cachedG = Color.RGBAGetG(color);
-                    cachedB = Color.RGBAGetB(color);
+                        cachedColors.set(cacheIndex, cachedColor);
+                    }
 
-                    cachedColors[3 * cacheIndex + 0] = (byte)cachedR;
-                    cachedColors[3 * cacheIndex + 1] = (byte)cachedG;
-                    cachedColors[3 * cacheIndex + 2] = (byte)cachedB;
-                }
+                    int cachedR = Color.RGBAGetR(cachedColor);
+                    int cachedG = Color.RGBAGetG(cachedColor);
+                    int cachedB = Color.RGBAGetB(cachedColor);
 
-                accumulatedR += cachedR;
-                accumulatedG += cachedG;
-                accumulatedB += cachedB;
+                    accumulatedR += cachedR;
+                    accumulatedG += cachedG;
+                    accumulatedB += cachedB;
 
-                blendBuffer[blendIndex + 0] = (byte)cachedR;
-                blendBuffer[blendIndex + 1] = (byte)cachedG;
-                blendBuffer[blendIndex + 2] = (byte)cachedB;
+                    blendBuffer[blendIndex + 0] = (byte)cachedR;
+                    blendBuffer[blendIndex + 1] = (byte)cachedG;
+                    blendBuffer[blendIndex + 2] = (byte)cachedB;
 
-                cacheIndex += 1;
-                blendIndex += 3;
+                    cacheIndex += 1;
+                    blendIndex += 3;
 
-                xF64 += 1.0;
-            }
+                    xF64 += 1.0;
+                }
 
-            blendLine += 3 * blendDim;
-            cacheLine += cacheDim;
+                blendLine += 3 * blendDim;
+                cacheLine += cacheDim;
 
-            zF64 += 1.0;
+                zF64 += 1.0;
+            }
+        }
+        finally
+        {
+            biomeSampler.end();
         }
 
         int averageR = accumulatedR / (12 * 12);
@@ -537,6 +603,7 @@ public final class ColorBlending
         ColorResolver colorResolver,
         int           colorType,
         int           chunkX,
+        int           sectionY,
         int           chunkZ,
         int           blendRadius,
         ColorCache    colorCache,
@@ -567,16 +634,16 @@ public final class ColorBlending
 
         int defaultColor = 0;
 
-        BiomeChunk biomeChunk = biomeCache.getOrDefaultInitializeChunk(chunkX, chunkZ);
-        ColorChunk colorChunk = colorCache.getOrDefaultInitializeChunk(chunkX, chunkZ, colorType);
+        BiomeChunk biomeChunk = biomeCache.getOrDefaultInitializeChunk(chunkX, sectionY, chunkZ);
+        ColorChunk colorChunk = colorCache.getOrDefaultInitializeChunk(chunkX, sectionY, chunkZ, colorType);
 
         if (neighborsAreLoaded)
         {
-            gatherColors(world, colorResolver, chunkX, chunkZ, blendRadius, 0, colorChunk.data, biomeChunk.data, blendBuffer, true, defaultColor);
+            gatherColors(world, colorResolver, chunkX, sectionY, chunkZ, blendRadius, 0, colorChunk, biomeChunk, blendBuffer, true, defaultColor);
         }
         else
         {
-            defaultColor = gatherColorsForCenterChunkSafeRegion(world, colorResolver, chunkX, chunkZ, blendRadius, colorChunk.data, biomeChunk.data, blendBuffer);
+            defaultColor = gatherColorsForCenterChunkSafeRegion(world, colorResolver, chunkX, sectionY, chunkZ, blendRadius, colorChunk, biomeChunk, blendBuffer);
 
             fillCenterChunkBoundaryWithDefaultColor(blendRadius, blendBuffer, defaultColor);
         }
@@ -591,12 +658,12 @@ public final class ColorBlending
             int neighborX = getNeighborPosX(index, chunkX);
             int neighborZ = getNeighborPosZ(index, chunkZ);
 
-            BiomeChunk neighborBiomeChunk = biomeCache.getOrDefaultInitializeChunk(neighborX, neighborZ);
-            ColorChunk neighborColorChunk = colorCache.getOrDefaultInitializeChunk(neighborX, neighborZ, colorType);
+            BiomeChunk neighborBiomeChunk = biomeCache.getOrDefaultInitializeChunk(neighborX, sectionY, neighborZ);
+            ColorChunk neighborColorChunk = colorCache.getOrDefaultInitializeChunk(neighborX, sectionY, neighborZ, colorType);
 
             if (neighbors[index] != null)
             {
-                gatherColors(world, colorResolver, neighborX, neighborZ, blendRadius, index, neighborColorChunk.data, neighborBiomeChunk.data, blendBuffer, neighborsAreLoaded, defaultColor);
+                gatherColors(world, colorResolver, neighborX, sectionY, neighborZ, blendRadius, index, neighborColorChunk, neighborBiomeChunk, blendBuffer, neighborsAreLoaded, defaultColor);
             }
             else
             {
@@ -608,8 +675,204 @@ public final class ColorBlending
         }
     }
 
+    public static boolean
+    gatherRawColorsToCachesForRect(
+        World         world,
+        ColorResolver colorResolver,
+        int           colorType,
+        int           chunkX,
+        int           sectionY,
+        int           chunkZ,
+        int           blendRadius,
+        ColorCache    colorCache,
+        BiomeCache    biomeCache,
+        byte[]        blendBuffer,
+        int           minX,
+        int           minZ,
+        int           maxX,
+        int           maxZ)
+    {
+        boolean result = isNeighborhoodLoaded(world, chunkX, chunkZ);
+
+        if (result)
+        {
+            int windowMaxX = maxX + 2 * blendRadius;
+            int windowMaxZ = maxZ + 2 * blendRadius;
+
+            for (int index = 0;
+                index < 9;
+                ++index)
+            {
+                if (isNeighborRectInWindow(index, blendRadius, minX, minZ, windowMaxX, windowMaxZ))
+                {
+                    int neighborX = getNeighborPosX(index, chunkX);
+                    int neighborZ = getNeighborPosZ(index, chunkZ);
+
+                    BiomeChunk neighborBiomeChunk = biomeCache.getOrDefaultInitializeChunk(neighborX, sectionY, neighborZ);
+                    ColorChunk neighborColorChunk = colorCache.getOrDefaultInitializeChunk(neighborX, sectionY, neighborZ, colorType);
+
+                    gatherColors(world, colorResolver, neighborX, sectionY, neighborZ, blendRadius, index, neighborColorChunk, neighborBiomeChunk, blendBuffer, true, 0, minX, minZ, windowMaxX, windowMaxZ);
+
+                    colorCache.releaseChunk(neighborColorChunk);
+                    biomeCache.releaseChunk(neighborBiomeChunk);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    public static boolean
+    isNeighborhoodLoaded(World world, int chunkX, int chunkZ)
+    {
+        boolean result = true;
+
+        for (int index = 0;
+            index < 9;
+            ++index)
+        {
+            int neighborX = getNeighborPosX(index, chunkX);
+            int neighborZ = getNeighborPosZ(index, chunkZ);
+
+            Chunk chunk = world.getChunk(neighborX, neighborZ, ChunkStatus.BIOMES, false);
+
+            if (chunk == null)
+            {
+                result = false;
+                break;
+            }
+        }
+
+        return result;
+    }
+
     public static void
-    blendColorsForChunk(World world, byte[] result, ColorBlendBuffer blendCache)
+    gatherRawColorsToChunk(
+        World         world,
+        ColorResolver colorResolver,
+        int           chunkX,
+        int           sectionY,
+        int           chunkZ,
+        ColorChunk    colorChunk,
+        BiomeChunk    biomeChunk)
+    {
+        final int blockX = 16 * chunkX;
+        final int blockZ = 16 * chunkZ;
+
+        int cacheIndex = 0;
+
+        BiomeSampler biomeSampler = BiomeSampler.begin(world, chunkX, ColorCaching.getSampleBlockY(sectionY), chunkZ);
+
+        try
+        {
+            for (int z = 0;
+                z < 16;
+                ++z)
+            {
+                for (int x = 0;
+                    x < 16;
+                    ++x)
+                {
+                    if (!ColorChunk.isValidColor(colorChunk.get(cacheIndex)))
+                    {
+                        Biome biome = biomeChunk.get(cacheIndex);
+
+                        if (biome == null)
+                        {
+                            biome = biomeSampler.getBiome(blockX + x, blockZ + z);
+
+                            biomeChunk.set(cacheIndex, biome, world);
+                        }
+
+                        int color = colorResolver.getColor(biome, (double)(blockX + x), (double)(blockZ + z));
+
+                        colorChunk.set(cacheIndex, Color.setFullAlpha(color));
+                    }
+
+                    ++cacheIndex;
+                }
+            }
+        }
+        finally
+        {
+            biomeSampler.end();
+        }
+    }
+
+    public static void
+    gatherRawColorsToCache(
+        World         world,
+        ColorResolver colorResolver,
+        int           colorType,
+        int           chunkX,
+        int           chunkZ,
+        ColorCache    colorCache,
+        BiomeCache    biomeCache)
+    {
+        long startTime = System.nanoTime();
+
+        BiomeChunk biomeChunk = biomeCache.getOrDefaultInitializeChunk(chunkX, ColorCaching.COLUMN_SECTION, chunkZ);
+        ColorChunk colorChunk = colorCache.getOrDefaultInitializeChunk(chunkX, ColorCaching.COLUMN_SECTION, chunkZ, colorType);
+
+        gatherRawColorsToChunk(world, colorResolver, chunkX, ColorCaching.COLUMN_SECTION, chunkZ, colorChunk, biomeChunk);
+
+        colorCache.releaseChunk(colorChunk);
+        biomeCache.releaseChunk(biomeChunk);
+
+        colorCache.metrics.recordGeneration(colorType, System.nanoTime() - startTime);
+    }
+
+    public static void
+    convertToLinearPlanes(ColorBlendBuffer blendBuffer, int minX, int minZ, int columnCount, int rowCount)
+    {
+        int blendCacheDim = blendBuffer.outputDim + 2 * blendBuffer.blendRadius;
+
+        byte[] color = blendBuffer.color;
+
+        blendBuffer.allocateLinearPlanes();
+
+        for (int z = minZ;
+            z < minZ + rowCount;
+            ++z)
+        {
+            for (int x = minX;
+                x < minX + columnCount;
+                ++x)
+            {
+                int index = blendCacheDim * z + x;
+
+                blendBuffer.linearR[index] = Color.sRGBByteToLinearFloat(0xFF & color[3 * index + 0]);
+                blendBuffer.linearG[index] = Color.sRGBByteToLinearFloat(0xFF & color[3 * index + 1]);
+                blendBuffer.linearB[index] = Color.sRGBByteToLinearFloat(0xFF & color[3 * index + 2]);
+            }
+        }
+    }
+
+    public static void
+    blendColorsForChunk(World world, int[] result, ColorBlendBuffer blendCache)
+    {
+        int blendKernel = BlendKernel.active;
+
+        if (!BlendFilter.isBoxFilter())
+        {
+            StackedBoxBlending.blendColorsForChunk(result, blendCache);
+        }
+        else if (blendKernel == BlendKernel.FIXED_POINT)
+        {
+            blendColorsForChunkFixedPoint(result, blendCache);
+        }
+        else if (blendKernel == BlendKernel.VECTOR)
+        {
+            BlendKernel.vectorBlender.blend(result, blendCache);
+        }
+        else
+        {
+            blendColorsForChunkFloat(result, blendCache);
+        }
+    }
+
+    public static void
+    blendColorsForChunkFloat(int[] result, ColorBlendBuffer blendCache)
     {
         float[] R = blendCache.R;
         float[] G = blendCache.G;
@@ -617,7 +880,8 @@ public final class ColorBlending
 
         int blendRadius = blendCache.blendRadius;
         int blendDim = 2 * blendRadius + 1;
-        int blendCacheDim = 16 + 2 * blendRadius;
+        int outputDim = blendCache.outputDim;
+        int blendCacheDim = outputDim + 2 * blendRadius;
         int blendCount = blendDim * blendDim;
 
         for (int x = 0;
@@ -644,7 +908,7 @@ public final class ColorBlending
         }
 
         for (int z = 0;
-            z < 16;
+            z < outputDim;
             ++z)
         {
             float accumulatedR = 0;
@@ -661,18 +925,19 @@ public final class ColorBlending
             }
 
             for (int x = 0;
-                x < 16;
+                x < outputDim;
                 ++x)
             {
                 float colorR = accumulatedR / blendCount;
                 float colorG = accumulatedG / blendCount;
                 float colorB = accumulatedB / blendCount;
 
-                result[3 * (16 * z + x) + 0] = Color.linearFloatTosRGBByte(colorR);
-                result[3 * (16 * z + x) + 1] = Color.linearFloatTosRGBByte(colorG);
-                result[3 * (16 * z + x) + 2] = Color.linearFloatTosRGBByte(colorB);
+                result[outputDim * z + x] = Color.makeRGBAWithFullAlpha(
+                    Color.linearFloatTosRGBByte(colorR),
+                    Color.linearFloatTosRGBByte(colorG),
+                    Color.linearFloatTosRGBByte(colorB));
 
-                if (x < 15)
+                if (x < outputDim - 1)
                 {
                     accumulatedR += R[x + blendDim] - R[x];
                     accumulatedG += G[x + blendDim] - G[x];
@@ -680,7 +945,7 @@ public final class ColorBlending
                 }
             }
 
-            if (z < 15)
+            if (z < outputDim - 1)
             {
                 for (int x = 0;
                     x < blendCacheDim;
@@ -697,33 +962,393 @@ public final class ColorBlending
         }
     }
 
+    public static void
+    blendColorsForChunkFixedPoint(int[] result, ColorBlendBuffer blendCache)
+    {
+        int[] R = blendCache.fixedR;
+        int[] G = blendCache.fixedG;
+        int[] B = blendCache.fixedB;
+
+        int blendRadius = blendCache.blendRadius;
+        int blendDim = 2 * blendRadius + 1;
+        int outputDim = blendCache.outputDim;
+        int blendCacheDim = outputDim + 2 * blendRadius;
+        int blendCount = blendDim * blendDim;
+        int blendRounding = blendCount / 2;
+
+        for (int x = 0;
+            x < blendCacheDim;
+            ++x)
+        {
+            R[x] = Color.sRGBByteToLinearFixed(0xFF & blendCache.color[3 * x + 0]);
+            G[x] = Color.sRGBByteToLinearFixed(0xFF & blendCache.color[3 * x + 1]);
+            B[x] = Color.sRGBByteToLinearFixed(0xFF & blendCache.color[3 * x + 2]);
+        }
+
+        for (int z = 1;
+            z < blendDim;
+            ++z)
+        {
+            for (int x = 0;
+                x < blendCacheDim;
+                ++x)
+            {
+                R[x] += Color.sRGBByteToLinearFixed(0xFF & blendCache.color[3 * (blendCacheDim * z + x) + 0]);
+                G[x] += Color.sRGBByteToLinearFixed(0xFF & blendCache.color[3 * (blendCacheDim * z + x) + 1]);
+                B[x] += Color.sRGBByteToLinearFixed(0xFF & blendCache.color[3 * (blendCacheDim * z + x) + 2]);
+            }
+        }
+
+        for (int z = 0;
+            z < outputDim;
+            ++z)
+        {
+            int accumulatedR = 0;
+            int accumulatedG = 0;
+            int accumulatedB = 0;
+
+            for (int x = 0;
+                x < blendDim;
+                ++x)
+            {
+                accumulatedR += R[x];
+                accumulatedG += G[x];
+                accumulatedB += B[x];
+            }
+
+            for (int x = 0;
+                x < outputDim;
+                ++x)
+            {
+                int colorR = (accumulatedR + blendRounding) / blendCount;
+                int colorG = (accumulatedG + blendRounding) / blendCount;
+                int colorB = (accumulatedB + blendRounding) / blendCount;
+
+                result[outputDim * z + x] = Color.makeRGBAWithFullAlpha(
+                    Color.linearFixedTosRGBByte(colorR),
+                    Color.linearFixedTosRGBByte(colorG),
+                    Color.linearFixedTosRGBByte(colorB));
+
+                if (x < outputDim - 1)
+                {
+                    accumulatedR += R[x + blendDim] - R[x];
+                    accumulatedG += G[x + blendDim] - G[x];
+                    accumulatedB += B[x + blendDim] - B[x];
+                }
+            }
+
+            if (z < outputDim - 1)
+            {
+                for (int x = 0;
+                    x < blendCacheDim;
+                    ++x)
+                {
+                    int index1 = 3 * (blendCacheDim * (z           ) + x);
+                    int index2 = 3 * (blendCacheDim * (z + blendDim) + x);
+
+                    R[x] += Color.sRGBByteToLinearFixed(0xFF & blendCache.color[index2 + 0]) - Color.sRGBByteToLinearFixed(0xFF & blendCache.color[index1 + 0]);
+                    G[x] += Color.sRGBByteToLinearFixed(0xFF & blendCache.color[index2 + 1]) - Color.sRGBByteToLinearFixed(0xFF & blendCache.color[index1 + 1]);
+                    B[x] += Color.sRGBByteToLinearFixed(0xFF & blendCache.color[index2 + 2]) - Color.sRGBByteToLinearFixed(0xFF & blendCache.color[index1 + 2]);
+                }
+            }
+        }
+    }
+
+    public static void
+    blendColorsForRect(int[] result, ColorBlendBuffer blendCache, int minX, int minZ, int maxX, int maxZ)
+    {
+        int blendKernel = BlendKernel.active;
+
+        if (blendKernel == BlendKernel.FIXED_POINT)
+        {
+            blendColorsForRectFixedPoint(result, blendCache, minX, minZ, maxX, maxZ);
+        }
+        else if (blendKernel == BlendKernel.VECTOR)
+        {
+            BlendKernel.vectorBlender.blendRect(result, blendCache, minX, minZ, maxX, maxZ);
+        }
+        else
+        {
+            blendColorsForRectFloat(result, blendCache, minX, minZ, maxX, maxZ);
+        }
+    }
+
+    public static void
+    blendColorsForRectFloat(int[] result, ColorBlendBuffer blendCache, int minX, int minZ, int maxX, int maxZ)
+    {
+        float[] R = blendCache.R;
+        float[] G = blendCache.G;
+        float[] B = blendCache.B;
+
+        int blendRadius = blendCache.blendRadius;
+        int blendDim = 2 * blendRadius + 1;
+        int outputDim = blendCache.outputDim;
+        int blendCacheDim = outputDim + 2 * blendRadius;
+        int blendCount = blendDim * blendDim;
+        int columnCount = (maxX - minX) + 2 * blendRadius;
+
+        for (int x = 0;
+            x < columnCount;
+            ++x)
+        {
+            R[x] = 0;
+            G[x] = 0;
+            B[x] = 0;
+
+            for (int z = 0;
+                z < blendDim;
+                ++z)
+            {
+                int index = 3 * (blendCacheDim * (minZ + z) + (minX + x));
+
+                R[x] += Color.sRGBByteToLinearFloat(0xFF & blendCache.color[index + 0]);
+                G[x] += Color.sRGBByteToLinearFloat(0xFF & blendCache.color[index + 1]);
+                B[x] += Color.sRGBByteToLinearFloat(0xFF & blendCache.color[index + 2]);
+            }
+        }
+
+        for (int z = minZ;
+            z < maxZ;
+            ++z)
+        {
+            float accumulatedR = 0;
+            float accumulatedG = 0;
+            float accumulatedB = 0;
+
+            for (int x = 0;
+                x < blendDim;
+                ++x)
+            {
+                accumulatedR += R[x];
+                accumulatedG += G[x];
+                accumulatedB += B[x];
+            }
+
+            for (int x = minX;
+                x < maxX;
+                ++x)
+            {
+                float colorR = accumulatedR / blendCount;
+                float colorG = accumulatedG / blendCount;
+                float colorB = accumulatedB / blendCount;
+
+                result[outputDim * z + x] = Color.makeRGBAWithFullAlpha(
+                    Color.linearFloatTosRGBByte(colorR),
+                    Color.linearFloatTosRGBByte(colorG),
+                    Color.linearFloatTosRGBByte(colorB));
+
+                if (x < maxX - 1)
+                {
+                    int column = x - minX;
+
+                    accumulatedR += R[column + blendDim] - R[column];
+                    accumulatedG += G[column + blendDim] - G[column];
+                    accumulatedB += B[column + blendDim] - B[column];
+                }
+            }
+
+            if (z < maxZ - 1)
+            {
+                for (int x = 0;
+                    x < columnCount;
+                    ++x)
+                {
+                    int index1 = 3 * (blendCacheDim * (z           ) + (minX + x));
+                    int index2 = 3 * (blendCacheDim * (z + blendDim) + (minX + x));
+
+                    R[x] += Color.sRGBByteToLinearFloat(0xFF & blendCache.color[index2 + 0]) - Color.sRGBByteToLinearFloat(0xFF & blendCache.color[index1 + 0]);
+                    G[x] += Color.sRGBByteToLinearFloat(0xFF & blendCache.color[index2 + 1]) - Color.sRGBByteToLinearFloat(0xFF & blendCache.color[index1 + 1]);
+                    B[x] += Color.sRGBByteToLinearFloat(0xFF & blendCache.color[index2 + 2]) - Color.sRGBByteToLinearFloat(0xFF & blendCache.color[index1 + 2]);
+                }
+            }
+        }
+    }
+
+    public static void
+    blendColorsForRectFixedPoint(int[] result, ColorBlendBuffer blendCache, int minX, int minZ, int maxX, int maxZ)
+    {
+        int[] R = blendCache.fixedR;
+        int[] G = blendCache.fixedG;
+        int[] B = blendCache.fixedB;
+
+        int blendRadius = blendCache.blendRadius;
+        int blendDim = 2 * blendRadius + 1;
+        int outputDim = blendCache.outputDim;
+        int blendCacheDim = outputDim + 2 * blendRadius;
+        int blendCount = blendDim * blendDim;
+        int blendRounding = blendCount / 2;
+        int columnCount = (maxX - minX) + 2 * blendRadius;
+
+        for (int x = 0;
+            x < columnCount;
+            ++x)
+        {
+            R[x] = 0;
+            G[x] = 0;
+            B[x] = 0;
+
+            for (int z = 0;
+                z < blendDim;
+                ++z)
+            {
+                int index = 3 * (blendCacheDim * (minZ + z) + (minX + x));
+
+                R[x] += Color.sRGBByteToLinearFixed(0xFF & blendCache.color[index + 0]);
+                G[x] += Color.sRGBByteToLinearFixed(0xFF & blendCache.color[index + 1]);
+                B[x] += Color.sRGBByteToLinearFixed(0xFF & blendCache.color[index + 2]);
+            }
+        }
+
+        for (int z = minZ;
+            z < maxZ;
+            ++z)
+        {
+            int accumulatedR = 0;
+            int accumulatedG = 0;
+            int accumulatedB = 0;
+
+            for (int x = 0;
+                x < blendDim;
+                ++x)
+            {
+                accumulatedR += R[x];
+                accumulatedG += G[x];
+                accumulatedB += B[x];
+            }
+
+            for (int x = minX;
+                x < maxX;
+                ++x)
+            {
+                int colorR = (accumulatedR + blendRounding) / blendCount;
+                int colorG = (accumulatedG + blendRounding) / blendCount;
+                int colorB = (accumulatedB + blendRounding) / blendCount;
+
+                result[outputDim * z + x] = Color.makeRGBAWithFullAlpha(
+                    Color.linearFixedTosRGBByte(colorR),
+                    Color.linearFixedTosRGBByte(colorG),
+                    Color.linearFixedTosRGBByte(colorB));
+
+                if (x < maxX - 1)
+                {
+                    int column = x - minX;
+
+                    accumulatedR += R[column + blendDim] - R[column];
+                    accumulatedG += G[column + blendDim] - G[column];
+                    accumulatedB += B[column + blendDim] - B[column];
+                }
+            }
+
+            if (z < maxZ - 1)
+            {
+                for (int x = 0;
+                    x < columnCount;
+                    ++x)
+                {
+                    int index1 = 3 * (blendCacheDim * (z           ) + (minX + x));
+                    int index2 = 3 * (blendCacheDim * (z + blendDim) + (minX + x));
+
+                    R[x] += Color.sRGBByteToLinearFixed(0xFF & blendCache.color[index2 + 0]) - Color.sRGBByteToLinearFixed(0xFF & blendCache.color[index1 + 0]);
+                    G[x] += Color.sRGBByteToLinearFixed(0xFF & blendCache.color[index2 + 1]) - Color.sRGBByteToLinearFixed(0xFF & blendCache.color[index1 + 1]);
+                    B[x] += Color.sRGBByteToLinearFixed(0xFF & blendCache.color[index2 + 2]) - Color.sRGBByteToLinearFixed(0xFF & blendCache.color[index1 + 2]);
+                }
+            }
+        }
+    }
+
     public static void
     generateBlendedColorChunk(
         World         world,
         ColorResolver colorResolverIn,
         int           colorType,
         int           chunkX,
+        int           sectionY,
         int           chunkZ,
+        int           blendRadius,
         ColorCache    blendCache,
         BiomeCache    biomeCache,
-        byte[]        result)
+        ColorChunk    result)
     {
-        int blendRadius = BetterBiomeBlendClient.getBlendRadiusSetting();
+        if (blendRadius > BetterBiomeBlendClient.BIOME_BLEND_RADIUS_MIN)
+        {
+            ColorBlendBuffer blendBuffer = acquireBlendBuffer(Math.min(blendRadius, BetterBiomeBlendClient.BIOME_BLEND_RADIUS_DIRECT_MAX));
 
-        if (blendRadius >  BetterBiomeBlendClient.BIOME_BLEND_RADIUS_MIN &&
-            blendRadius <= BetterBiomeBlendClient.BIOME_BLEND_RADIUS_MAX)
+            gatherRawColorsToCaches(world, colorResolverIn, colorType, chunkX, sectionY, chunkZ, blendBuffer.blendRadius, blendCache, biomeCache, blendBuffer.color);
+
+            blendColorsForChunk(world, blendBuffer.blended, blendBuffer);
+
+            result.set(0, blendBuffer.blended, 0, 16 * 16);
+
+            releaseBlendBuffer(blendBuffer);
+        }
+        else
+        {
+            gatherRawColorsForChunk(world, result, chunkX, sectionY, chunkZ, colorResolverIn);
+        }
+    }
+
+    public static boolean
+    canRegenerateRect(int blendRadius)
+    {
+        boolean result =
+            BlendFilter.isBoxFilter()                                           &&
+            !SummedAreaTable.ENABLED                                            &&
+            blendRadius >  BetterBiomeBlendClient.BIOME_BLEND_RADIUS_MIN        &&
+            blendRadius <= BetterBiomeBlendClient.BIOME_BLEND_RADIUS_DIRECT_MAX;
+
+        return result;
+    }
+
+    public static void
+    regenerateBlendedColorRect(
+        World         world,
+        ColorResolver colorResolverIn,
+        int           colorType,
+        int           chunkX,
+        int           sectionY,
+        int           chunkZ,
+        int           blendRadius,
+        ColorCache    blendCache,
+        BiomeCache    biomeCache,
+        ColorChunk    result,
+        int           minX,
+        int           minZ,
+        int           maxX,
+        int           maxZ)
+    {
+        boolean regenerated = false;
+
+        if (canRegenerateRect(blendRadius))
         {
             ColorBlendBuffer blendBuffer = acquireBlendBuffer(blendRadius);
 
-            gatherRawColorsToCaches(world, colorResolverIn, colorType, chunkX, chunkZ, blendBuffer.blendRadius, blendCache, biomeCache, blendBuffer.color);
+            if (gatherRawColorsToCachesForRect(world, colorResolverIn, colorType, chunkX, sectionY, chunkZ, blendRadius, blendCache, biomeCache, blendBuffer.color, minX, minZ, maxX, maxZ))
+            {
+                blendColorsForRect(blendBuffer.blended, blendBuffer, minX, minZ, maxX, maxZ);
+
+                for (int z = minZ;
+                    z < maxZ;
+                    ++z)
+                {
+                    for (int x = minX;
+                        x < maxX;
+                        ++x)
+                    {
+                        int index = 16 * z + x;
+
+                        result.set(index, blendBuffer.blended[index]);
+                    }
+                }
 
-            blendColorsForChunk(world, result, blendBuffer);
+                regenerated = true;
+            }
 
             releaseBlendBuffer(blendBuffer);
         }
-        else
+
+        if (!regenerated)
         {
-            gatherRawColorsForChunk(world, result, chunkX, chunkZ, colorResolverIn);
+            generateBlendedColorChunk(world, colorResolverIn, colorType, chunkX, sectionY, chunkZ, blendRadius, blendCache, biomeCache, result);
         }
     }
 }
@@ -2,39 +2,274 @@ package fionathemortal.betterbiomeblend;
 
 import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
 
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Stack;
 import java.util.concurrent.locks.ReentrantLock;
 
 public final class ColorCache
 {
-    public final ReentrantLock                            lock;
-    public final Long2ObjectLinkedOpenHashMap<ColorChunk> hash;
-    public final Stack<ColorChunk>                        free;
+    public static final class Shard
+    {
+        public final ReentrantLock                            lock;
+        public final Long2ObjectLinkedOpenHashMap<ColorChunk> hash;
+        public final Stack<ColorChunk>                        free;
+        public final int                                      slotSize;
+        public final int                                      shardIndex;
+        public final CacheMetrics                             metrics;
+
+        public final ArrayList<ChunkArena> arenas = new ArrayList<>();
+
+        public int capacity;
+        public int chunkCount;
+
+        public
+        Shard(int capacity, int slotSize, int shardIndex, CacheMetrics metrics)
+        {
+            lock = new ReentrantLock();
+            hash = new Long2ObjectLinkedOpenHashMap<>();
+            free = new Stack<>();
+
+            this.slotSize   = slotSize;
+            this.shardIndex = shardIndex;
+            this.capacity   = capacity;
+            this.metrics    = metrics;
+        }
+
+        public ColorChunk
+        allocateChunk()
+        {
+            ChunkArena arena = null;
+
+            for (int index = arenas.size() - 1;
+                index >= 0;
+                --index)
+            {
+                if (arenas.get(index).hasFreeSlot())
+                {
+                    arena = arenas.get(index);
+                    break;
+                }
+            }
+
+            if (arena == null)
+            {
+                arena = new ChunkArena(ChunkArena.BLOCK_SLOT_COUNT, slotSize, ChunkArena.OFF_HEAP);
+
+                arenas.add(arena);
+            }
+
+            ColorChunk result = new ColorChunk(arena, arena.allocateSlot());
+
+            result.shardIndex = shardIndex;
+
+            ++chunkCount;
+
+            metrics.residentChunks.incrementAndGet();
+
+            return result;
+        }
+
+        public void
+        dropChunk(ColorChunk chunk)
+        {
+            ChunkArena arena = chunk.arena;
+
+            arena.freeSlot(chunk.slot);
+
+            if (arena.isEmpty())
+            {
+                arenas.remove(arena);
+            }
+
+            --chunkCount;
+
+            metrics.residentChunks.decrementAndGet();
+        }
+
+        public void
+        freeChunk(ColorChunk chunk)
+        {
+            if (chunkCount > capacity)
+            {
+                dropChunk(chunk);
+            }
+            else
+            {
+                free.push(chunk);
+            }
+        }
+
+        public ColorChunk
+        newChunk()
+        {
+            ColorChunk result = null;
+
+            if (!free.empty())
+            {
+                result = free.pop();
+            }
+            else if (chunkCount < capacity)
+            {
+                result = allocateChunk();
+            }
+            else
+            {
+                for (int attempt = hash.size();
+                    attempt > 0;
+                    --attempt)
+                {
+                    long lastKey = hash.lastLongKey();
+
+                    ColorChunk chunk = hash.removeLast();
+
+                    if (chunk.getReferenceCount() == 1)
+                    {
+                        chunk.release();
+
+                        metrics.evictions.increment();
+
+                        result = chunk;
+                        break;
+                    }
+                    else
+                    {
+                        hash.putAndMoveToFirst(lastKey, chunk);
+
+                        metrics.evictionSkips.increment();
+                    }
+                }
+
+                if (result == null)
+                {
+                    result = allocateChunk();
+                }
+            }
+
+            return result;
+        }
+
+        public void
+        trim()
+        {
+            while (chunkCount > capacity && !free.empty())
+            {
+                dropChunk(free.pop());
+            }
+
+            for (int attempt = hash.size();
+                attempt > 0 && chunkCount > capacity;
+                --attempt)
+            {
+                long lastKey = hash.lastLongKey();
+
+                ColorChunk chunk = hash.removeLast();
+
+                if (chunk.getReferenceCount() == 1)
+                {
+                    chunk.release();
+                    chunk.markAsInvalid();
+
+                    dropChunk(chunk);
+
+                    metrics.evictions.increment();
+                }
+                else
+                {
+                    hash.putAndMoveToFirst(lastKey, chunk);
+
+                    metrics.evictionSkips.increment();
+                }
+            }
+        }
+    }
+
+    public final Shard[]      shards;
+    public final int          shardMask;
+    public final int          minShardCapacity;
+    public final CacheMetrics metrics;
+
+    public volatile PersistentColorStore store;
 
     public
     ColorCache(int count)
     {
-        lock = new ReentrantLock();
-        hash = new Long2ObjectLinkedOpenHashMap<>(count);
-        free = new Stack<>();
+        this(count, "ColorCache", 16 * 16);
+    }
+
+    public
+    ColorCache(int count, String name, int slotSize)
+    {
+        this(count, name, slotSize, ColorCaching.MIN_CHUNKS_PER_SHARD);
+    }
+
+    public
+    ColorCache(int count, String name, int slotSize, int minShardCapacity)
+    {
+        int shardCount = ColorCaching.getShardCount();
 
-        for (int index = 0;
-            index < count;
-            ++index)
+        metrics   = new CacheMetrics(name, slotSize * Integer.BYTES);
+
+        shards    = new Shard[shardCount];
+        shardMask = shardCount - 1;
+
+        this.minShardCapacity = minShardCapacity;
+
+        for (int shardIndex = 0;
+            shardIndex < shardCount;
+            ++shardIndex)
         {
-            free.add(new ColorChunk());
+            int shardCapacity = ColorCaching.getShardCapacity(count, shardCount, shardIndex, minShardCapacity);
+
+            shards[shardIndex] = new Shard(shardCapacity, slotSize, shardIndex, metrics);
+
+            metrics.capacity.addAndGet(shardCapacity);
         }
     }
 
+    public Shard
+    getShard(long key)
+    {
+        int index = ColorCaching.getShardIndex(key, shardMask);
+
+        Shard result = shards[index];
+
+        return result;
+    }
+
     public void
-    releaseChunkWithoutLock(ColorChunk chunk)
+    setCapacity(int count)
+    {
+        long totalCapacity = 0;
+
+        for (int shardIndex = 0;
+            shardIndex < shards.length;
+            ++shardIndex)
+        {
+            Shard shard = shards[shardIndex];
+
+            shard.lock.lock();
+
+            shard.capacity = ColorCaching.getShardCapacity(count, shards.length, shardIndex, minShardCapacity);
+
+            shard.trim();
+
+            shard.lock.unlock();
+
+            totalCapacity += shard.capacity;
+        }
+
+        metrics.capacity.set(totalCapacity);
+    }
+
+    public void
+    releaseChunkWithoutLock(Shard shard, ColorChunk chunk)
     {
         int refCount = chunk.release();
 
         if (refCount == 0)
         {
-            free.push(chunk);
+            shard.freeChunk(chunk);
         }
     }
 
@@ -45,36 +280,121 @@ public final class ColorCache
 
         if (refCount == 0)
         {
-            lock.lock();
+            Shard shard = shards[chunk.shardIndex];
 
-            free.push(chunk);
+            shard.lock.lock();
 
-            lock.unlock();
+            shard.freeChunk(chunk);
+
+            shard.lock.unlock();
         }
     }
 
     public void
     invalidateAll()
     {
-        lock.lock();
-
-        for (ColorChunk chunk : hash.values())
+        for (Shard shard : shards)
         {
-            releaseChunkWithoutLock(chunk);
+            shard.lock.lock();
+
+            for (ColorChunk chunk : shard.hash.values())
+            {
+                releaseChunkWithoutLock(shard, chunk);
+
+                chunk.markAsInvalid();
+            }
 
-            chunk.markAsInvalid();
+            metrics.invalidations.add(shard.hash.size());
+
+            shard.hash.clear();
+
+            shard.lock.unlock();
         }
+    }
+
+    public void
+    collectUnpersisted(List<PersistentColorStore.ColorRecord> records)
+    {
+        for (Shard shard : shards)
+        {
+            shard.lock.lock();
 
-        hash.clear();
+            for (ColorChunk chunk : shard.hash.values())
+            {
+                long key = chunk.key;
 
-        lock.unlock();
+                if (!chunk.isPersisted                                            &&
+                    ColorCaching.getKeySectionY(key) == ColorCaching.COLUMN_SECTION &&
+                    ColorCaching.getKeyColorType(key) <= BiomeColorType.LAST        &&
+                    chunk.isComplete())
+                {
+                    int[] colors = new int[16 * 16];
+
+                    chunk.get(0, colors, 0, colors.length);
+
+                    records.add(new PersistentColorStore.ColorRecord(ColorCaching.getKeyChunkX(key), ColorCaching.getKeyChunkZ(key), ColorCaching.getKeyColorType(key), colors));
+
+                    chunk.isPersisted = true;
+                }
+            }
+
+            shard.lock.unlock();
+        }
     }
 
     public void
-    invalidateSmallNeighborhood(int chunkX, int chunkZ)
+    invalidateKey(long key, int chunkIndex)
     {
-        lock.lock();
+        Shard shard = getShard(key);
 
+        shard.lock.lock();
+
+        if (chunkIndex == 0)
+        {
+            ColorChunk chunk = shard.hash.remove(key);
+
+            if (chunk != null)
+            {
+                releaseChunkWithoutLock(shard, chunk);
+
+                chunk.markAsInvalid();
+
+                metrics.invalidations.increment();
+            }
+        }
+        else
+        {
+            ColorChunk chunk = shard.hash.get(key);
+
+            if (chunk != null)
+            {
+                int minX = ColorBlending.getNeighborRectMinX(chunkIndex, 2);
+                int minZ = ColorBlending.getNeighborRectMinZ(chunkIndex, 2);
+                int maxX = ColorBlending.getNeighborRectMaxX(chunkIndex, 2);
+                int maxZ = ColorBlending.getNeighborRectMaxZ(chunkIndex, 2);
+
+                for (int z1 = minZ;
+                    z1 < maxZ;
+                    ++z1)
+                {
+                    for (int x1 = minX;
+                        x1 < maxX;
+                        ++x1)
+                    {
+                        chunk.set(16 * z1 + x1, ColorChunk.INVALID_COLOR);
+                    }
+                }
+
+                chunk.isPersisted = false;
+            }
+        }
+
+        shard.lock.unlock();
+    }
+
+    public void
+    invalidateNeighborhood(int chunkX, int chunkZ)
+    {
         for (int chunkIndex = 0;
             chunkIndex < 9;
             ++chunkIndex)
@@ -86,98 +406,128 @@ public final class ColorCache
                 colorType < CustomColorResolverCompatibility.nextColorResolverID;
                 ++colorType)
             {
-                long key = ColorCaching.getChunkKey(chunkX + offsetX, chunkZ + offsetZ, colorType);
+                invalidateKey(ColorCaching.getChunkKey(chunkX + offsetX, chunkZ + offsetZ, colorType), 0);
+            }
+        }
+    }
 
-                if (chunkIndex == 0)
-                {
-                    ColorChunk chunk = hash.remove(key);
+    public void
+    invalidateNeighborhood(int chunkX, int chunkZ, int minSectionY, int maxSectionY)
+    {
+        invalidateNeighborhood(chunkX, chunkZ);
 
-                    if (chunk != null)
-                    {
-                        releaseChunkWithoutLock(chunk);
+        for (int chunkIndex = 0;
+            chunkIndex < 9;
+            ++chunkIndex)
+        {
+            int offsetX = ColorBlending.getNeighborOffsetX(chunkIndex);
+            int offsetZ = ColorBlending.getNeighborOffsetZ(chunkIndex);
 
-                        chunk.markAsInvalid();
-                    }
-                }
-                else
+            for (int colorType = BiomeColorType.FIRST;
+                colorType < CustomColorResolverCompatibility.nextColorResolverID;
+                ++colorType)
+            {
+                for (int sectionY = minSectionY;
+                    sectionY < maxSectionY;
+                    ++sectionY)
                 {
-                    ColorChunk chunk = hash.get(key);
-
-                    if (chunk != null)
-                    {
-                        int minX = ColorBlending.getNeighborRectMinX(chunkIndex, 2);
-                        int minZ = ColorBlending.getNeighborRectMinZ(chunkIndex, 2);
-                        int maxX = ColorBlending.getNeighborRectMaxX(chunkIndex, 2);
-                        int maxZ = ColorBlending.getNeighborRectMaxZ(chunkIndex, 2);
-
-                        for (int z1 = minZ;
-                            z1 < maxZ;
-                            ++z1)
-                        {
-                            for (int x1 = minX;
-                                x1 < maxX;
-                                ++x1)
-                            {
-                                chunk.data[3 * (16 * z1 + x1) + 0] = (byte)-1;
-                                chunk.data[3 * (16 * z1 + x1) + 1] = (byte)-1;
-                                chunk.data[3 * (16 * z1 + x1) + 2] = (byte)-1;
-                            }
-                        }
-                    }
+                    invalidateKey(ColorCaching.getChunkKey(chunkX + offsetX, sectionY, chunkZ + offsetZ, colorType), 0);
                 }
             }
         }
+    }
+
+    public void
+    invalidateSmallNeighborhood(int chunkX, int chunkZ, int minSectionY, int maxSectionY)
+    {
+        for (int chunkIndex = 0;
+            chunkIndex < 9;
+            ++chunkIndex)
+        {
+            int offsetX = ColorBlending.getNeighborOffsetX(chunkIndex);
+            int offsetZ = ColorBlending.getNeighborOffsetZ(chunkIndex);
 
-        lock.unlock();
+            for (int colorType = BiomeColorType.FIRST;
+                colorType < CustomColorResolverCompatibility.nextColorResolverID;
+                ++colorType)
+            {
+                invalidateKey(ColorCaching.getChunkKey(chunkX + offsetX, chunkZ + offsetZ, colorType), chunkIndex);
+
+                for (int sectionY = minSectionY;
+                    sectionY < maxSectionY;
+                    ++sectionY)
+                {
+                    invalidateKey(ColorCaching.getChunkKey(chunkX + offsetX, sectionY, chunkZ + offsetZ, colorType), chunkIndex);
+                }
+            }
+        }
     }
 
     public ColorChunk
-    getOrDefaultInitializeChunk(int chunkX, int chunkZ, int colorType)
+    getOrDefaultInitializeChunk(int chunkX, int sectionY, int chunkZ, int colorType)
     {
-        long key = ColorCaching.getChunkKey(chunkX, chunkZ, colorType);
+        long key = ColorCaching.getChunkKey(chunkX, sectionY, chunkZ, colorType);
+
+        Shard shard = getShard(key);
+
+        PersistentColorStore persistentStore = store;
 
-        lock.lock();
+        boolean isStored =
+            persistentStore != null                 &&
+            sectionY == ColorCaching.COLUMN_SECTION &&
+            colorType <= BiomeColorType.LAST;
 
-        ColorChunk result = hash.getAndMoveToFirst(key);
+        int[]   storedColors = null;
+        boolean isLoaded     = false;
+
+        shard.lock.lock();
+
+        ColorChunk result = shard.hash.getAndMoveToFirst(key);
+
+        if (result == null && isStored)
+        {
+            shard.lock.unlock();
+
+            storedColors = new int[16 * 16];
+
+            isLoaded = persistentStore.loadColors(chunkX, chunkZ, colorType, storedColors);
+
+            shard.lock.lock();
+
+            result = shard.hash.getAndMoveToFirst(key);
+        }
 
         if (result == null)
         {
-            if (!free.empty())
+            metrics.misses.increment();
+
+            result = shard.newChunk();
+
+            result.key = key;
+
+            if (isLoaded)
             {
-                result = free.pop();
+                result.set(0, storedColors, 0, 16 * 16);
             }
             else
             {
-                for (;;)
-                {
-                    long lastKey = hash.lastLongKey();
-
-                    result = hash.removeLast();
-
-                    if (result.getReferenceCount() == 1)
-                    {
-                        result.release();
-                        break;
-                    }
-                    else
-                    {
-                        hash.putAndMoveToFirst(lastKey, result);
-                    }
-                }
+                result.fill(ColorChunk.INVALID_COLOR);
             }
 
-            result.key = key;
-
-            Arrays.fill(result.data, (byte)-1);
+            result.isPersisted = isLoaded;
 
             result.acquire();
 
-            hash.putAndMoveToFirst(result.key, result);
+            shard.hash.putAndMoveToFirst(result.key, result);
+        }
+        else
+        {
+            metrics.hits.increment();
         }
 
         result.acquire();
 
-        lock.unlock();
+        shard.lock.unlock();
 
         return result;
     }
@@ -1,5 +1,8 @@
 package fionathemortal.betterbiomeblend;
 
+import it.unimi.dsi.fastutil.HashCommon;
+import net.minecraft.client.color.world.BiomeColors;
+import net.minecraft.util.math.MathHelper;
 import net.minecraft.world.World;
 import net.minecraft.world.level.ColorResolver;
 
@@ -7,41 +10,210 @@ public final class ColorCaching
 {
     public static final int INVALID_CHUNK_KEY = -1;
 
+    public static final int MIN_CHUNKS_PER_SHARD = 16;
+
+    public static final boolean SECTION_AWARE = Boolean.getBoolean("betterbiomeblend.sectionAwareCaching");
+
+    public static final int COLUMN_SECTION = -128;
+
+    public static final int BLEND_RADIUS_SHIFT = 58;
+
+    public static final int MAX_COLOR_TYPES = 1 << (BLEND_RADIUS_SHIFT - 52);
+
+    public static final int UNCACHED_COLOR_TYPE = -2;
+
     public static long
-    getChunkKey(int chunkX, int chunkZ, int colorType)
+    getChunkKey(int chunkX, int sectionY, int chunkZ, int colorType)
     {
         long result =
-            ((long)(chunkZ & 0x03FFFFFFL) << 26) |
-            ((long)(chunkX & 0x03FFFFFFL))       |
+            ((long)(sectionY & 0x000000FFL) << 44) |
+            ((long)(chunkZ   & 0x003FFFFFL) << 22) |
+            ((long)(chunkX   & 0x003FFFFFL))       |
             ((long)colorType << 52);
 
         return result;
     }
 
-    public static ColorChunk
-    getThreadLocalChunk(ThreadLocal<ColorChunk> threadLocal, int chunkX, int chunkZ, int colorType)
+    public static long
+    getChunkKey(int chunkX, int chunkZ, int colorType)
+    {
+        long result = getChunkKey(chunkX, COLUMN_SECTION, chunkZ, colorType);
+
+        return result;
+    }
+
+    public static int
+    getKeyChunkX(long key)
+    {
+        int result = (int)((key << 42) >> 42);
+
+        return result;
+    }
+
+    public static int
+    getKeyChunkZ(long key)
+    {
+        int result = (int)((key << 20) >> 42);
+
+        return result;
+    }
+
+    public static int
+    getKeySectionY(long key)
+    {
+        int result = (byte)(key >>> 44);
+
+        return result;
+    }
+
+    public static int
+    getKeyColorType(long key)
     {
-        ColorChunk result = null;
-        ColorChunk local = threadLocal.get();
+        int result = (int)((key >>> 52) & (MAX_COLOR_TYPES - 1));
 
-        long key = getChunkKey(chunkX, chunkZ, colorType);
+        return result;
+    }
 
-        if (local.key == key)
+    public static int
+    getKeyBlendRadius(long key)
+    {
+        int result = (int)(key >>> BLEND_RADIUS_SHIFT);
+
+        return result;
+    }
+
+    public static long
+    getBlendChunkKey(int chunkX, int sectionY, int chunkZ, int colorType, int blendRadius)
+    {
+        long result = getChunkKey(chunkX, sectionY, chunkZ, colorType) | ((long)blendRadius << BLEND_RADIUS_SHIFT);
+
+        return result;
+    }
+
+    public static int
+    getColorType(ColorResolver colorResolver)
+    {
+        int result;
+
+        if (colorResolver == BiomeColors.GRASS_COLOR)
+        {
+            result = BiomeColorType.GRASS;
+        }
+        else if (colorResolver == BiomeColors.WATER_COLOR)
         {
-            result = local;
+            result = BiomeColorType.WATER;
+        }
+        else if (colorResolver == BiomeColors.FOLIAGE_COLOR)
+        {
+            result = BiomeColorType.FOLIAGE;
+        }
+        else
+        {
+            result = CustomColorResolverCompatibility.getColorType(colorResolver);
         }
 
         return result;
     }
 
-    public static void
-    setThreadLocalChunk(ThreadLocal<ColorChunk> threadLocal, ColorChunk chunk, BlendCache cache)
+    public static int
+    getSectionY(int blockY)
     {
-        ColorChunk local = threadLocal.get();
+        int result = COLUMN_SECTION;
 
-        cache.releaseChunk(local);
+        if (SECTION_AWARE)
+        {
+            result = MathHelper.clamp(blockY >> 4, COLUMN_SECTION + 1, 127);
+        }
 
-        threadLocal.set(chunk);
+        return result;
+    }
+
+    public static int
+    getSampleBlockY(int sectionY)
+    {
+        int result = (sectionY == COLUMN_SECTION) ? 0 : 16 * sectionY + 8;
+
+        return result;
+    }
+
+    public static int
+    getMinCachedSectionY(World world)
+    {
+        int result = SECTION_AWARE ? world.getBottomSectionCoord() : 0;
+
+        return result;
+    }
+
+    public static int
+    getMaxCachedSectionY(World world)
+    {
+        int result = SECTION_AWARE ? world.getTopSectionCoord() : 0;
+
+        return result;
+    }
+
+    public static int
+    getShardCount()
+    {
+        int threadCount = Runtime.getRuntime().availableProcessors();
+
+        int result = Integer.highestOneBit(2 * threadCount);
+
+        return result;
+    }
+
+    public static int
+    getShardChunkCount(int chunkCount, int shardCount, int shardIndex)
+    {
+        int result = (chunkCount + shardCount - 1 - shardIndex) / shardCount;
+
+        return result;
+    }
+
+    public static int
+    getShardCapacity(int chunkCount, int shardCount, int shardIndex)
+    {
+        int result = getShardCapacity(chunkCount, shardCount, shardIndex, MIN_CHUNKS_PER_SHARD);
+
+        return result;
+    }
+
+    public static int
+    getShardCapacity(int chunkCount, int shardCount, int shardIndex, int minShardCapacity)
+    {
+        int result = Math.max(getShardChunkCount(chunkCount, shardCount, shardIndex), minShardCapacity);
+
+        return result;
+    }
+
+    public static int
+    getShardIndex(long key, int shardMask)
+    {
+        int result = (int)HashCommon.mix(key) & shardMask;
+
+        return result;
+    }
+
+    public static void
+    generateClampedFallback(
+        World         world,
+        ColorResolver colorResolverIn,
+        int           colorType,
+        int           chunkX,
+        int           sectionY,
+        int           chunkZ,
+        int           blendRadius,
+        BlendCache    blendCache,
+        ColorCache    colorCache,
+        BiomeCache    biomeCache,
+        ColorChunk    chunk)
+    {
+        if (HierarchicalBlending.isHierarchicalRadius(blendRadius))
+        {
+            blendCache.metrics.clampedFallbacks.increment();
+        }
+
+        ColorBlending.generateBlendedColorChunk(world, colorResolverIn, colorType, chunkX, sectionY, chunkZ, blendRadius, colorCache, biomeCache, chunk);
     }
 
     public static ColorChunk
@@ -50,20 +222,102 @@ public final class ColorCaching
         ColorResolver colorResolverIn,
         int           colorType,
         int           chunkX,
+        int           sectionY,
         int           chunkZ,
+        int           blendRadius,
         BlendCache    blendCache,
         ColorCache    colorCache,
-        BiomeCache    biomeCache)
+        BiomeCache    biomeCache,
+        ColorCache    tableCache,
+        ColorCache    reducedCache)
     {
-        ColorChunk chunk = blendCache.getChunk(chunkX, chunkZ, colorType);
+        ColorChunk chunk = blendCache.getOrNewChunk(chunkX, COLUMN_SECTION, chunkZ, colorType, blendRadius);
 
-        if (chunk == null)
+        if (chunk.isGenerating)
         {
-            chunk = blendCache.newChunk(chunkX, chunkZ, colorType);
+            long startTime = System.nanoTime();
+
+            try
+            {
+                chunk.isColumnDivergent = SECTION_AWARE && !BiomeSampler.isColumnUniform(world, chunkX, chunkZ, biomeCache);
+
+                if (chunk.hasDirtyRect() && !ColorBlending.canRegenerateRect(blendRadius))
+                {
+                    chunk.clearDirtyRect();
+                }
+
+                if (!chunk.isColumnDivergent)
+                {
+                    if (chunk.hasDirtyRect())
+                    {
+                        ColorBlending.regenerateBlendedColorRect(
+                            world,
+                            colorResolverIn,
+                            colorType,
+                            chunkX,
+                            COLUMN_SECTION,
+                            chunkZ,
+                            blendRadius,
+                            colorCache,
+                            biomeCache,
+                            chunk,
+                            chunk.dirtyMinX,
+                            chunk.dirtyMinZ,
+                            chunk.dirtyMaxX,
+                            chunk.dirtyMaxZ);
+
+                        chunk.clearDirtyRect();
+                    }
+                    else if (!HierarchicalBlending.generateBlendedColorChunk(world, colorResolverIn, colorType, chunkX, COLUMN_SECTION, chunkZ, blendRadius, reducedCache, colorCache, biomeCache, chunk) &&
+                             !SummedAreaTable.generateBlendedColorChunk(world, colorResolverIn, colorType, chunkX, chunkZ, blendRadius, tableCache, colorCache, biomeCache, chunk)                    &&
+                             !TileBlending.generateTileForChunk(world, colorResolverIn, colorType, chunkX, chunkZ, blendRadius, chunk, blendCache, colorCache, biomeCache))
+                    {
+                        generateClampedFallback(world, colorResolverIn, colorType, chunkX, COLUMN_SECTION, chunkZ, blendRadius, blendCache, colorCache, biomeCache, chunk);
+                    }
+                }
+            }
+            catch (RuntimeException | Error e)
+            {
+                blendCache.abandonChunk(chunk);
+
+                throw e;
+            }
+
+            blendCache.metrics.recordGeneration(colorType, System.nanoTime() - startTime);
+
+            blendCache.putChunk(chunk);
+        }
+
+        if (chunk.isColumnDivergent && sectionY != COLUMN_SECTION)
+        {
+            blendCache.releaseChunk(chunk);
+
+            chunk = blendCache.getOrNewChunk(chunkX, sectionY, chunkZ, colorType, blendRadius);
+
+            if (chunk.isGenerating)
+            {
+                long startTime = System.nanoTime();
+
+                try
+                {
+                    chunk.isColumnDivergent = false;
+
+                    if (!HierarchicalBlending.generateBlendedColorChunk(world, colorResolverIn, colorType, chunkX, sectionY, chunkZ, blendRadius, reducedCache, colorCache, biomeCache, chunk))
+                    {
+                        generateClampedFallback(world, colorResolverIn, colorType, chunkX, sectionY, chunkZ, blendRadius, blendCache, colorCache, biomeCache, chunk);
+                    }
+                }
+                catch (RuntimeException | Error e)
+                {
+                    blendCache.abandonChunk(chunk);
+
+                    throw e;
+                }
 
-            ColorBlending.generateBlendedColorChunk(world, colorResolverIn, colorType, chunkX, chunkZ, colorCache, biomeCache, chunk.data);
+                blendCache.metrics.recordGeneration(colorType, System.nanoTime() - startTime);
 
-            chunk = blendCache.putChunk(chunk);
+                blendCache.putChunk(chunk);
+            }
         }
 
         return chunk;
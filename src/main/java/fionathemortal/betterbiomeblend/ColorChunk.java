@@ -1,19 +1,47 @@
 package fionathemortal.betterbiomeblend;
 
-import java.util.concurrent.atomic.AtomicInteger;
+import java.lang.invoke.VarHandle;
+import java.nio.IntBuffer;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 public final class ColorChunk
 {
-    public byte[] data;
-    public long   key;
-    public int    invalidationCounter;
+    public static final int INVALID_COLOR = 0;
 
-    public AtomicInteger refCount = new AtomicInteger();
+    public final int[]     array;
+    public final IntBuffer buffer;
+
+    public long      key;
+    public int       shardIndex;
+    public boolean   isGenerating;
+    public boolean   isAbandoned;
+    public boolean   isColumnDivergent;
+    public boolean   isPersisted;
+
+    public int dirtyMinX;
+    public int dirtyMinZ;
+    public int dirtyMaxX;
+    public int dirtyMaxZ;
+
+    public final ChunkArena arena;
+
+    public AtomicIntegerArray refCounts;
+    public int                slot;
 
     public
     ColorChunk()
     {
-        this.data = new byte[16 * 16 * 3];
+        this(new ChunkArena(1, 16 * 16, false), 0);
+    }
+
+    public
+    ColorChunk(ChunkArena arena, int slot)
+    {
+        this.arena     = arena;
+        this.array     = arena.getSlotArray(slot);
+        this.buffer    = arena.getSlotBuffer(slot);
+        this.refCounts = arena.refCounts;
+        this.slot      = slot;
 
         this.markAsInvalid();
     }
@@ -21,7 +49,7 @@ public final class ColorChunk
     public int
     getReferenceCount()
     {
-        int result = refCount.get();
+        int result = refCounts.get(slot);
 
         return result;
     }
@@ -29,7 +57,7 @@ public final class ColorChunk
     public int
     release()
     {
-        int result = refCount.decrementAndGet();
+        int result = refCounts.decrementAndGet(slot);
 
         return result;
     }
@@ -37,7 +65,7 @@ public final class ColorChunk
     public void
     acquire()
     {
-        refCount.incrementAndGet();
+        refCounts.incrementAndGet(slot);
     }
 
     public void
@@ -46,20 +74,172 @@ public final class ColorChunk
         key = ColorCaching.INVALID_CHUNK_KEY;
     }
 
+    public static boolean
+    isValidColor(int color)
+    {
+        boolean result = (color != INVALID_COLOR);
+
+        return result;
+    }
+
+    public int
+    get(int index)
+    {
+        int result = (array != null) ? array[index] : buffer.get(index);
+
+        return result;
+    }
+
+    public int
+    getAcquire(int index)
+    {
+        int result = get(index);
+
+        VarHandle.acquireFence();
+
+        return result;
+    }
+
+    public void
+    get(int index, int[] result, int offset, int length)
+    {
+        if (array != null)
+        {
+            System.arraycopy(array, index, result, offset, length);
+        }
+        else
+        {
+            buffer.get(index, result, offset, length);
+        }
+    }
+
+    public void
+    set(int index, int value)
+    {
+        if (array != null)
+        {
+            array[index] = value;
+        }
+        else
+        {
+            buffer.put(index, value);
+        }
+    }
+
+    public void
+    setRelease(int index, int value)
+    {
+        VarHandle.releaseFence();
+
+        set(index, value);
+    }
+
+    public void
+    set(int index, int[] values, int offset, int length)
+    {
+        if (array != null)
+        {
+            System.arraycopy(values, offset, array, index, length);
+        }
+        else
+        {
+            buffer.put(index, values, offset, length);
+        }
+    }
+
+    public void
+    fill(int color)
+    {
+        for (int index = 0;
+            index < 16 * 16;
+            ++index)
+        {
+            set(index, color);
+        }
+    }
+
     public int
     getColor(int x, int z)
     {
-        int blockX = x & 15;
-        int blockZ = z & 15;
+        int result = get(((z & 15) << 4) | (x & 15));
 
-        int offset = 3 * ((blockZ << 4) | blockX);
+        return result;
+    }
 
-        int colorR = this.data[offset + 0];
-        int colorG = this.data[offset + 1];
-        int colorB = this.data[offset + 2];
+    public boolean
+    isComplete()
+    {
+        boolean result = true;
+
+        for (int index = 0;
+            index < 16 * 16;
+            ++index)
+        {
+            if (!isValidColor(get(index)))
+            {
+                result = false;
+                break;
+            }
+        }
 
-        int result = Color.makeRGBAWithFullAlpha(colorR, colorG, colorB);
+        return result;
+    }
+
+    public boolean
+    hasDirtyRect()
+    {
+        boolean result = (dirtyMinX < dirtyMaxX && dirtyMinZ < dirtyMaxZ);
 
         return result;
     }
+
+    public void
+    clearDirtyRect()
+    {
+        dirtyMinX = 0;
+        dirtyMinZ = 0;
+        dirtyMaxX = 0;
+        dirtyMaxZ = 0;
+    }
+
+    public void
+    addDirtyRect(int minX, int minZ, int maxX, int maxZ)
+    {
+        if (hasDirtyRect())
+        {
+            dirtyMinX = Math.min(dirtyMinX, minX);
+            dirtyMinZ = Math.min(dirtyMinZ, minZ);
+            dirtyMaxX = Math.max(dirtyMaxX, maxX);
+            dirtyMaxZ = Math.max(dirtyMaxZ, maxZ);
+        }
+        else
+        {
+            dirtyMinX = minX;
+            dirtyMinZ = minZ;
+            dirtyMaxX = maxX;
+            dirtyMaxZ = maxZ;
+        }
+    }
+
+    public void
+    copyFrom(ColorChunk other)
+    {
+        if (other.array != null)
+        {
+            set(0, other.array, 0, 16 * 16);
+        }
+        else if (array != null)
+        {
+            other.get(0, array, 0, 16 * 16);
+        }
+        else
+        {
+            buffer.put(0, other.buffer, 0, 16 * 16);
+        }
+
+        dirtyMinX = other.dirtyMinX;
+        dirtyMinZ = other.dirtyMinZ;
+        dirtyMaxX = other.dirtyMaxX;
+        dirtyMaxZ = other.dirtyMaxZ;
+    }
 }
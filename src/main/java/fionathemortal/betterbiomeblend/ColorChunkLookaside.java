@@ -0,0 +1,64 @@
+package fionathemortal.betterbiomeblend;
+
+import java.util.Arrays;
+
+public final class ColorChunkLookaside
+{
+    public static final int WAY_COUNT = 4;
+
+    public ColorChunk[] chunks = new ColorChunk[WAY_COUNT * (BiomeColorType.LAST + 1)];
+
+    public static int
+    getSlot(int chunkX, int chunkZ, int colorType)
+    {
+        int result = WAY_COUNT * colorType + (chunkX & 1) + 2 * (chunkZ & 1);
+
+        return result;
+    }
+
+    public ColorChunk
+    get(int chunkX, int sectionY, int chunkZ, int colorType, int blendRadius)
+    {
+        ColorChunk result = null;
+
+        int slot = getSlot(chunkX, chunkZ, colorType);
+
+        if (slot < chunks.length)
+        {
+            ColorChunk local = chunks[slot];
+
+            if (local != null)
+            {
+                long columnKey  = ColorCaching.getBlendChunkKey(chunkX, ColorCaching.COLUMN_SECTION, chunkZ, colorType, blendRadius);
+                long sectionKey = ColorCaching.getBlendChunkKey(chunkX, sectionY, chunkZ, colorType, blendRadius);
+
+                if (local.key == columnKey || local.key == sectionKey)
+                {
+                    result = local;
+                }
+            }
+        }
+
+        return result;
+    }
+
+    public void
+    put(int chunkX, int chunkZ, int colorType, ColorChunk chunk, BlendCache cache)
+    {
+        int slot = getSlot(chunkX, chunkZ, colorType);
+
+        if (slot >= chunks.length)
+        {
+            chunks = Arrays.copyOf(chunks, Math.max(2 * chunks.length, WAY_COUNT * (colorType + 1)));
+        }
+
+        ColorChunk local = chunks[slot];
+
+        if (local != null)
+        {
+            cache.releaseChunk(local);
+        }
+
+        chunks[slot] = chunk;
+    }
+}
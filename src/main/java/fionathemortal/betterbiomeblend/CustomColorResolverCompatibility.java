@@ -1,41 +1,230 @@
 package fionathemortal.betterbiomeblend;
 
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import net.minecraft.world.level.ColorResolver;
 
-import java.util.concurrent.ConcurrentHashMap;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.util.concurrent.locks.ReentrantLock;
 
 public final class CustomColorResolverCompatibility
 {
-    public static final ReentrantLock                             lock                = new ReentrantLock();
-    public static final ConcurrentHashMap<ColorResolver, Integer> knownColorResolvers = new ConcurrentHashMap<>();
+    public static final class ResolverReference extends WeakReference<ColorResolver>
+    {
+        public final int colorType;
+
+        public
+        ResolverReference(ColorResolver resolver, int colorType, ReferenceQueue<ColorResolver> queue)
+        {
+            super(resolver, queue);
+
+            this.colorType = colorType;
+        }
+    }
 
-    public static int nextColorResolverID = BiomeColorType.LAST + 1;
+    public static final int MIN_TABLE_SIZE = 16;
+
+    public static final ReentrantLock                lock               = new ReentrantLock();
+    public static final ReferenceQueue<ColorResolver> collectedResolvers = new ReferenceQueue<>();
+    public static final IntArrayList                 releasedColorTypes = new IntArrayList();
+    public static final IntArrayList                 freeColorTypes     = new IntArrayList();
+
+    public static volatile ResolverReference[] resolverTable = new ResolverReference[MIN_TABLE_SIZE];
+
+    public static int liveResolverCount;
+    public static int tableEntryCount;
+
+    public static volatile int nextColorResolverID = BiomeColorType.LAST + 1;
+
+    public static boolean colorTypesExhausted;
 
     public static int
-    addNewColorResolverID()
+    getTableIndex(ColorResolver resolver, int mask)
     {
-        int result = nextColorResolverID++;
+        int result = HashCommon.mix(System.identityHashCode(resolver)) & mask;
 
         return result;
     }
 
     public static int
-    addNewColorResolver(ColorResolver resolver)
+    findColorType(ResolverReference[] table, ColorResolver resolver)
+    {
+        int result = -1;
+        int mask   = table.length - 1;
+
+        for (int index = getTableIndex(resolver, mask);
+            table[index] != null;
+            index = (index + 1) & mask)
+        {
+            if (table[index].get() == resolver)
+            {
+                result = table[index].colorType;
+                break;
+            }
+        }
+
+        return result;
+    }
+
+    public static void
+    insertReference(ResolverReference[] table, ResolverReference reference, ColorResolver resolver)
+    {
+        int mask  = table.length - 1;
+        int index = getTableIndex(resolver, mask);
+
+        while (table[index] != null)
+        {
+            index = (index + 1) & mask;
+        }
+
+        table[index] = reference;
+    }
+
+    public static ResolverReference[]
+    rebuildResolverTable()
+    {
+        int tableSize = Math.max(Integer.highestOneBit(4 * liveResolverCount), MIN_TABLE_SIZE);
+
+        ResolverReference[] result = new ResolverReference[tableSize];
+
+        tableEntryCount = 0;
+
+        for (ResolverReference reference : resolverTable)
+        {
+            ColorResolver liveResolver = (reference != null) ? reference.get() : null;
+
+            if (liveResolver != null)
+            {
+                insertReference(result, reference, liveResolver);
+
+                ++tableEntryCount;
+            }
+        }
+
+        return result;
+    }
+
+    public static void
+    assignFreeColorTypes()
+    {
+        ResolverReference[] table = resolverTable;
+
+        for (int index = 0;
+            index < table.length && !freeColorTypes.isEmpty();
+            ++index)
+        {
+            ResolverReference reference = table[index];
+
+            if (reference != null && reference.colorType == ColorCaching.UNCACHED_COLOR_TYPE)
+            {
+                ColorResolver liveResolver = reference.get();
+
+                if (liveResolver != null)
+                {
+                    table[index] = new ResolverReference(liveResolver, freeColorTypes.popInt(), collectedResolvers);
+
+                    reference.clear();
+                }
+            }
+        }
+    }
+
+    public static void
+    releaseCollectedResolvers()
+    {
+        Reference<? extends ColorResolver> reference;
+
+        while ((reference = collectedResolvers.poll()) != null)
+        {
+            int colorType = ((ResolverReference)reference).colorType;
+
+            if (colorType >= 0)
+            {
+                releasedColorTypes.add(colorType);
+            }
+
+            --liveResolverCount;
+        }
+    }
+
+    public static void
+    recycleReleasedColorTypes()
     {
         lock.lock();
 
-        int result;
+        releaseCollectedResolvers();
 
-        if (!knownColorResolvers.contains(resolver))
+        for (int index = 0;
+            index < releasedColorTypes.size();
+            ++index)
         {
-            result = addNewColorResolverID();
+            freeColorTypes.add(releasedColorTypes.getInt(index));
+        }
 
-            knownColorResolvers.put(resolver, result);
+        releasedColorTypes.clear();
+
+        assignFreeColorTypes();
+
+        lock.unlock();
+    }
+
+    public static int
+    addNewColorResolverID()
+    {
+        int result;
+
+        if (!freeColorTypes.isEmpty())
+        {
+            result = freeColorTypes.popInt();
+        }
+        else if (nextColorResolverID < ColorCaching.MAX_COLOR_TYPES)
+        {
+            result = nextColorResolverID++;
         }
         else
         {
-            result = knownColorResolvers.get(resolver);
+            result = ColorCaching.UNCACHED_COLOR_TYPE;
+
+            if (!colorTypesExhausted)
+            {
+                colorTypesExhausted = true;
+
+                BetterBiomeBlendClient.LOGGER.warn("More than {} color resolvers are live, further resolvers will not be blended", ColorCaching.MAX_COLOR_TYPES);
+            }
+        }
+
+        return result;
+    }
+
+    public static int
+    addNewColorResolver(ColorResolver resolver)
+    {
+        lock.lock();
+
+        int result = findColorType(resolverTable, resolver);
+
+        if (result == -1)
+        {
+            releaseCollectedResolvers();
+
+            result = addNewColorResolverID();
+
+            ++liveResolverCount;
+
+            ResolverReference[] table = resolverTable;
+
+            if (2 * (tableEntryCount + 1) > table.length)
+            {
+                table = rebuildResolverTable();
+            }
+
+            insertReference(table, new ResolverReference(resolver, result, collectedResolvers), resolver);
+
+            ++tableEntryCount;
+
+            resolverTable = table;
         }
 
         lock.unlock();
@@ -46,9 +235,9 @@ public final class CustomColorResolverCompatibility
     public static int
     getColorType(ColorResolver resolver)
     {
-        Integer result = knownColorResolvers.get(resolver);
+        int result = findColorType(resolverTable, resolver);
 
-        if (result == null)
+        if (result == -1)
         {
             result = addNewColorResolver(resolver);
         }
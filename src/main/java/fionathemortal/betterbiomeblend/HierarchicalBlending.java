@@ -0,0 +1,514 @@
+package fionathemortal.betterbiomeblend;
+
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.ChunkStatus;
+import net.minecraft.world.level.ColorResolver;
+
+public final class HierarchicalBlending
+{
+    public static final int CELL_SIZE       = 4;
+    public static final int CELLS_PER_CHUNK = 16 / CELL_SIZE;
+    public static final int CELL_COUNT      = CELLS_PER_CHUNK * CELLS_PER_CHUNK;
+    public static final int MARGIN_CELLS    = 1;
+    public static final int OUTPUT_DIM      = CELLS_PER_CHUNK + 2 * MARGIN_CELLS;
+
+    public static final int VALID_INDEX = 0;
+    public static final int R_OFFSET    = 1;
+    public static final int G_OFFSET    = 1 + CELL_COUNT;
+    public static final int B_OFFSET    = 1 + CELL_COUNT * 2;
+    public static final int SLOT_SIZE   = 1 + CELL_COUNT * 3;
+
+    public static final int MAX_KERNEL_RADIUS = getKernelCellRadius(BetterBiomeBlendClient.BIOME_BLEND_RADIUS_MAX);
+    public static final int MAX_GRID_DIM      = OUTPUT_DIM + 2 * MAX_KERNEL_RADIUS;
+
+    public static final class GridBuffer
+    {
+        public final float[] R;
+        public final float[] G;
+        public final float[] B;
+
+        public final float[] rowR;
+        public final float[] rowG;
+        public final float[] rowB;
+
+        public final float[] blendedR;
+        public final float[] blendedG;
+        public final float[] blendedB;
+
+        public final float[] weights;
+
+        public
+        GridBuffer()
+        {
+            R = new float[MAX_GRID_DIM * MAX_GRID_DIM];
+            G = new float[MAX_GRID_DIM * MAX_GRID_DIM];
+            B = new float[MAX_GRID_DIM * MAX_GRID_DIM];
+
+            rowR = new float[MAX_GRID_DIM * OUTPUT_DIM];
+            rowG = new float[MAX_GRID_DIM * OUTPUT_DIM];
+            rowB = new float[MAX_GRID_DIM * OUTPUT_DIM];
+
+            blendedR = new float[OUTPUT_DIM * OUTPUT_DIM];
+            blendedG = new float[OUTPUT_DIM * OUTPUT_DIM];
+            blendedB = new float[OUTPUT_DIM * OUTPUT_DIM];
+
+            weights = new float[2 * MAX_KERNEL_RADIUS + 1];
+        }
+    }
+
+    public static final ThreadLocal<GridBuffer> threadLocalGridBuffer = ThreadLocal.withInitial(GridBuffer::new);
+
+    public static boolean
+    isHierarchicalRadius(int blendRadius)
+    {
+        boolean result = (blendRadius > BetterBiomeBlendClient.BIOME_BLEND_RADIUS_DIRECT_MAX);
+
+        return result;
+    }
+
+    public static int
+    getKernelCellRadius(int blendRadius)
+    {
+        int result = (2 * blendRadius + 5) / (2 * CELL_SIZE);
+
+        return result;
+    }
+
+    public static int
+    getNeighborhoodRadius(int blendRadius)
+    {
+        int result = 1;
+
+        if (isHierarchicalRadius(blendRadius))
+        {
+            result = (getKernelCellRadius(blendRadius) + MARGIN_CELLS + CELLS_PER_CHUNK - 1) / CELLS_PER_CHUNK;
+        }
+
+        return result;
+    }
+
+    public static void
+    getCellWeights(int blendRadius, int kernelRadius, float[] weights)
+    {
+        if (BlendFilter.isBoxFilter())
+        {
+            getBoxCellWeights(blendRadius, kernelRadius, weights);
+        }
+        else
+        {
+            getStackedBoxCellWeights(blendRadius, kernelRadius, weights);
+        }
+    }
+
+    public static void
+    getStackedBoxCellWeights(int blendRadius, int kernelRadius, float[] weights)
+    {
+        float[] kernel = StackedBoxBlending.getKernel(blendRadius);
+
+        for (int k = -kernelRadius;
+            k <= kernelRadius;
+            ++k)
+        {
+            float weight = 0;
+
+            for (int x = CELL_SIZE * k;
+                x < CELL_SIZE * k + CELL_SIZE;
+                ++x)
+            {
+                int offsetA = x - CELL_SIZE / 2 + 1 + blendRadius;
+                int offsetB = x - CELL_SIZE / 2     + blendRadius;
+
+                if (offsetA >= 0 && offsetA < kernel.length)
+                {
+                    weight += 0.5f * kernel[offsetA];
+                }
+
+                if (offsetB >= 0 && offsetB < kernel.length)
+                {
+                    weight += 0.5f * kernel[offsetB];
+                }
+            }
+
+            weights[k + kernelRadius] = weight;
+        }
+    }
+
+    public static void
+    getBoxCellWeights(int blendRadius, int kernelRadius, float[] weights)
+    {
+        float kernelMin = 0.5f * CELL_SIZE - blendRadius - 0.5f;
+        float kernelMax = 0.5f * CELL_SIZE + blendRadius + 0.5f;
+        float kernelDim = 2 * blendRadius + 1;
+
+        for (int k = -kernelRadius;
+            k <= kernelRadius;
+            ++k)
+        {
+            float overlapMin = Math.max((float)(CELL_SIZE * k),             kernelMin);
+            float overlapMax = Math.min((float)(CELL_SIZE * k + CELL_SIZE), kernelMax);
+
+            weights[k + kernelRadius] = Math.max(overlapMax - overlapMin, 0.0f) / kernelDim;
+        }
+    }
+
+    public static boolean
+    isValid(ColorChunk cells)
+    {
+        boolean result = (cells.getAcquire(VALID_INDEX) != 0);
+
+        return result;
+    }
+
+    public static void
+    reduce(ColorChunk cells, ColorChunk colors)
+    {
+        final int cellArea = CELL_SIZE * CELL_SIZE;
+
+        for (int cellZ = 0;
+            cellZ < CELLS_PER_CHUNK;
+            ++cellZ)
+        {
+            for (int cellX = 0;
+                cellX < CELLS_PER_CHUNK;
+                ++cellX)
+            {
+                int accumulatedR = 0;
+                int accumulatedG = 0;
+                int accumulatedB = 0;
+
+                for (int z = 0;
+                    z < CELL_SIZE;
+                    ++z)
+                {
+                    for (int x = 0;
+                        x < CELL_SIZE;
+                        ++x)
+                    {
+                        int color = colors.get(16 * (CELL_SIZE * cellZ + z) + (CELL_SIZE * cellX + x));
+
+                        accumulatedR += Color.sRGBByteToLinearFixed(Color.RGBAGetR(color));
+                        accumulatedG += Color.sRGBByteToLinearFixed(Color.RGBAGetG(color));
+                        accumulatedB += Color.sRGBByteToLinearFixed(Color.RGBAGetB(color));
+                    }
+                }
+
+                int cellIndex = CELLS_PER_CHUNK * cellZ + cellX;
+
+                cells.set(R_OFFSET + cellIndex, (accumulatedR + cellArea / 2) / cellArea);
+                cells.set(G_OFFSET + cellIndex, (accumulatedG + cellArea / 2) / cellArea);
+                cells.set(B_OFFSET + cellIndex, (accumulatedB + cellArea / 2) / cellArea);
+            }
+        }
+
+        cells.setRelease(VALID_INDEX, 1);
+    }
+
+    public static ColorChunk
+    getReducedChunk(
+        World         world,
+        ColorResolver colorResolverIn,
+        int           colorType,
+        int           chunkX,
+        int           sectionY,
+        int           chunkZ,
+        ColorCache    reducedCache,
+        ColorCache    colorCache,
+        BiomeCache    biomeCache)
+    {
+        ColorChunk result = reducedCache.getOrDefaultInitializeChunk(chunkX, sectionY, chunkZ, colorType);
+
+        if (!isValid(result) && ColorBlending.isNeighborhoodLoaded(world, chunkX, chunkZ))
+        {
+            BiomeChunk biomeChunk = biomeCache.getOrDefaultInitializeChunk(chunkX, sectionY, chunkZ);
+            ColorChunk colorChunk = colorCache.getOrDefaultInitializeChunk(chunkX, sectionY, chunkZ, colorType);
+
+            ColorBlending.gatherRawColorsToChunk(world, colorResolverIn, chunkX, sectionY, chunkZ, colorChunk, biomeChunk);
+
+            reduce(result, colorChunk);
+
+            colorCache.releaseChunk(colorChunk);
+            biomeCache.releaseChunk(biomeChunk);
+        }
+
+        return result;
+    }
+
+    public static void
+    copyCells(GridBuffer grid, ColorChunk cells, int offsetX, int offsetZ, int gridMin, int gridDim)
+    {
+        for (int cellZ = 0;
+            cellZ < CELLS_PER_CHUNK;
+            ++cellZ)
+        {
+            int gridZ = CELLS_PER_CHUNK * offsetZ + cellZ - gridMin;
+
+            if (gridZ >= 0 && gridZ < gridDim)
+            {
+                for (int cellX = 0;
+                    cellX < CELLS_PER_CHUNK;
+                    ++cellX)
+                {
+                    int gridX = CELLS_PER_CHUNK * offsetX + cellX - gridMin;
+
+                    if (gridX >= 0 && gridX < gridDim)
+                    {
+                        int cellIndex = CELLS_PER_CHUNK * cellZ + cellX;
+                        int gridIndex = gridDim * gridZ + gridX;
+
+                        grid.R[gridIndex] = cells.get(R_OFFSET + cellIndex);
+                        grid.G[gridIndex] = cells.get(G_OFFSET + cellIndex);
+                        grid.B[gridIndex] = cells.get(B_OFFSET + cellIndex);
+                    }
+                }
+            }
+        }
+    }
+
+    public static void
+    fillCells(GridBuffer grid, float defaultR, float defaultG, float defaultB, int offsetX, int offsetZ, int gridMin, int gridDim)
+    {
+        for (int cellZ = 0;
+            cellZ < CELLS_PER_CHUNK;
+            ++cellZ)
+        {
+            int gridZ = CELLS_PER_CHUNK * offsetZ + cellZ - gridMin;
+
+            if (gridZ >= 0 && gridZ < gridDim)
+            {
+                for (int cellX = 0;
+                    cellX < CELLS_PER_CHUNK;
+                    ++cellX)
+                {
+                    int gridX = CELLS_PER_CHUNK * offsetX + cellX - gridMin;
+
+                    if (gridX >= 0 && gridX < gridDim)
+                    {
+                        int gridIndex = gridDim * gridZ + gridX;
+
+                        grid.R[gridIndex] = defaultR;
+                        grid.G[gridIndex] = defaultG;
+                        grid.B[gridIndex] = defaultB;
+                    }
+                }
+            }
+        }
+    }
+
+    public static float
+    getCellAverage(ColorChunk cells, int offset)
+    {
+        float accumulated = 0;
+
+        for (int cellIndex = 0;
+            cellIndex < CELL_COUNT;
+            ++cellIndex)
+        {
+            accumulated += cells.get(offset + cellIndex);
+        }
+
+        float result = accumulated / CELL_COUNT;
+
+        return result;
+    }
+
+    public static void
+    blendGrid(GridBuffer grid, int kernelRadius, int gridDim)
+    {
+        int kernelDim = 2 * kernelRadius + 1;
+
+        for (int gridZ = 0;
+            gridZ < gridDim;
+            ++gridZ)
+        {
+            for (int x = 0;
+                x < OUTPUT_DIM;
+                ++x)
+            {
+                float accumulatedR = 0;
+                float accumulatedG = 0;
+                float accumulatedB = 0;
+
+                for (int k = 0;
+                    k < kernelDim;
+                    ++k)
+                {
+                    int gridIndex = gridDim * gridZ + x + k;
+
+                    accumulatedR += grid.weights[k] * grid.R[gridIndex];
+                    accumulatedG += grid.weights[k] * grid.G[gridIndex];
+                    accumulatedB += grid.weights[k] * grid.B[gridIndex];
+                }
+
+                grid.rowR[OUTPUT_DIM * gridZ + x] = accumulatedR;
+                grid.rowG[OUTPUT_DIM * gridZ + x] = accumulatedG;
+                grid.rowB[OUTPUT_DIM * gridZ + x] = accumulatedB;
+            }
+        }
+
+        for (int z = 0;
+            z < OUTPUT_DIM;
+            ++z)
+        {
+            for (int x = 0;
+                x < OUTPUT_DIM;
+                ++x)
+            {
+                float accumulatedR = 0;
+                float accumulatedG = 0;
+                float accumulatedB = 0;
+
+                for (int k = 0;
+                    k < kernelDim;
+                    ++k)
+                {
+                    int rowIndex = OUTPUT_DIM * (z + k) + x;
+
+                    accumulatedR += grid.weights[k] * grid.rowR[rowIndex];
+                    accumulatedG += grid.weights[k] * grid.rowG[rowIndex];
+                    accumulatedB += grid.weights[k] * grid.rowB[rowIndex];
+                }
+
+                grid.blendedR[OUTPUT_DIM * z + x] = accumulatedR;
+                grid.blendedG[OUTPUT_DIM * z + x] = accumulatedG;
+                grid.blendedB[OUTPUT_DIM * z + x] = accumulatedB;
+            }
+        }
+    }
+
+    public static float
+    interpolate(float[] plane, int x0, int z0, float tx, float tz)
+    {
+        int index = OUTPUT_DIM * z0 + x0;
+
+        float top    = plane[index             ] + tx * (plane[index + 1             ] - plane[index             ]);
+        float bottom = plane[index + OUTPUT_DIM] + tx * (plane[index + 1 + OUTPUT_DIM] - plane[index + OUTPUT_DIM]);
+
+        float result = top + tz * (bottom - top);
+
+        return result;
+    }
+
+    public static byte
+    linearToByte(float color)
+    {
+        int fixed = Math.min(Math.max(Math.round(color), 0), Color.LINEAR_FIXED_ONE);
+
+        byte result = Color.linearFixedTosRGBByte(fixed);
+
+        return result;
+    }
+
+    public static void
+    upsample(GridBuffer grid, ColorChunk result)
+    {
+        for (int z = 0;
+            z < 16;
+            ++z)
+        {
+            float cellZ = (z + 0.5f) / CELL_SIZE - 0.5f + MARGIN_CELLS;
+
+            int   z0 = (int)cellZ;
+            float tz = cellZ - z0;
+
+            for (int x = 0;
+                x < 16;
+                ++x)
+            {
+                float cellX = (x + 0.5f) / CELL_SIZE - 0.5f + MARGIN_CELLS;
+
+                int   x0 = (int)cellX;
+                float tx = cellX - x0;
+
+                result.set(16 * z + x, Color.makeRGBAWithFullAlpha(
+                    linearToByte(interpolate(grid.blendedR, x0, z0, tx, tz)),
+                    linearToByte(interpolate(grid.blendedG, x0, z0, tx, tz)),
+                    linearToByte(interpolate(grid.blendedB, x0, z0, tx, tz))));
+            }
+        }
+    }
+
+    public static boolean
+    generateBlendedColorChunk(
+        World         world,
+        ColorResolver colorResolverIn,
+        int           colorType,
+        int           chunkX,
+        int           sectionY,
+        int           chunkZ,
+        int           blendRadius,
+        ColorCache    reducedCache,
+        ColorCache    colorCache,
+        BiomeCache    biomeCache,
+        ColorChunk    result)
+    {
+        boolean generated = false;
+
+        if (isHierarchicalRadius(blendRadius) &&
+            ColorBlending.isNeighborhoodLoaded(world, chunkX, chunkZ))
+        {
+            GridBuffer grid = threadLocalGridBuffer.get();
+
+            int kernelRadius       = getKernelCellRadius(blendRadius);
+            int neighborhoodRadius = getNeighborhoodRadius(blendRadius);
+            int gridMin            = -(MARGIN_CELLS + kernelRadius);
+            int gridDim            = OUTPUT_DIM + 2 * kernelRadius;
+
+            ColorChunk center = getReducedChunk(world, colorResolverIn, colorType, chunkX, sectionY, chunkZ, reducedCache, colorCache, biomeCache);
+
+            float defaultR = getCellAverage(center, R_OFFSET);
+            float defaultG = getCellAverage(center, G_OFFSET);
+            float defaultB = getCellAverage(center, B_OFFSET);
+
+            copyCells(grid, center, 0, 0, gridMin, gridDim);
+
+            reducedCache.releaseChunk(center);
+
+            for (int offsetZ = -neighborhoodRadius;
+                offsetZ <= neighborhoodRadius;
+                ++offsetZ)
+            {
+                for (int offsetX = -neighborhoodRadius;
+                    offsetX <= neighborhoodRadius;
+                    ++offsetX)
+                {
+                    if (offsetX != 0 || offsetZ != 0)
+                    {
+                        int neighborX = chunkX + offsetX;
+                        int neighborZ = chunkZ + offsetZ;
+
+                        ColorChunk neighbor = null;
+
+                        if (world.getChunk(neighborX, neighborZ, ChunkStatus.BIOMES, false) != null)
+                        {
+                            neighbor = getReducedChunk(world, colorResolverIn, colorType, neighborX, sectionY, neighborZ, reducedCache, colorCache, biomeCache);
+                        }
+
+                        if (neighbor != null && isValid(neighbor))
+                        {
+                            copyCells(grid, neighbor, offsetX, offsetZ, gridMin, gridDim);
+                        }
+                        else
+                        {
+                            fillCells(grid, defaultR, defaultG, defaultB, offsetX, offsetZ, gridMin, gridDim);
+                        }
+
+                        if (neighbor != null)
+                        {
+                            reducedCache.releaseChunk(neighbor);
+                        }
+                    }
+                }
+            }
+
+            getCellWeights(blendRadius, kernelRadius, grid.weights);
+
+            blendGrid(grid, kernelRadius, gridDim);
+
+            upsample(grid, result);
+
+            generated = true;
+        }
+
+        return generated;
+    }
+}
@@ -0,0 +1,124 @@
+package fionathemortal.betterbiomeblend;
+
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.client.render.WorldRenderer;
+import net.minecraft.client.world.ClientWorld;
+import net.minecraft.util.math.BlockPos;
+
+import java.util.Arrays;
+
+public final class IncrementalRemesh
+{
+    public static final long BUDGET_NANOS = 1000L * Long.getLong("betterbiomeblend.remeshBudgetMicros", 1000L);
+
+    public static int[] pendingSections;
+    public static int   pendingCount;
+    public static int   pendingIndex;
+
+    @SuppressWarnings("resource")
+    public static void
+    scheduleAroundCamera()
+    {
+        MinecraftClient client = MinecraftClient.getInstance();
+        ClientWorld     world  = client.world;
+
+        pendingSections = null;
+
+        if (world != null && client.gameRenderer.getCamera() != null)
+        {
+            BlockPos cameraPos = client.gameRenderer.getCamera().getBlockPos();
+
+            int cameraX = cameraPos.getX() >> 4;
+            int cameraY = cameraPos.getY() >> 4;
+            int cameraZ = cameraPos.getZ() >> 4;
+
+            int renderDistance = client.options.viewDistance;
+            int minSectionY    = world.getBottomSectionCoord();
+            int maxSectionY    = world.getTopSectionCoord();
+
+            int horizontalDim = 2 * renderDistance + 1;
+            int sectionCount  = horizontalDim * horizontalDim * (maxSectionY - minSectionY);
+
+            long[] order    = new long[sectionCount];
+            int[]  sections = new int[3 * sectionCount];
+
+            int index = 0;
+
+            for (int sectionY = minSectionY;
+                sectionY < maxSectionY;
+                ++sectionY)
+            {
+                for (int offsetZ = -renderDistance;
+                    offsetZ <= renderDistance;
+                    ++offsetZ)
+                {
+                    for (int offsetX = -renderDistance;
+                        offsetX <= renderDistance;
+                        ++offsetX)
+                    {
+                        int offsetY  = sectionY - cameraY;
+                        int distance = offsetX * offsetX + offsetY * offsetY + offsetZ * offsetZ;
+
+                        order[index] = ((long)distance << 32) | index;
+
+                        sections[3 * index + 0] = cameraX + offsetX;
+                        sections[3 * index + 1] = sectionY;
+                        sections[3 * index + 2] = cameraZ + offsetZ;
+
+                        ++index;
+                    }
+                }
+            }
+
+            Arrays.sort(order);
+
+            int[] sortedSections = new int[3 * sectionCount];
+
+            for (int rank = 0;
+                rank < sectionCount;
+                ++rank)
+            {
+                int sectionIndex = (int)order[rank];
+
+                System.arraycopy(sections, 3 * sectionIndex, sortedSections, 3 * rank, 3);
+            }
+
+            pendingSections = sortedSections;
+            pendingCount    = sectionCount;
+            pendingIndex    = 0;
+        }
+    }
+
+    @SuppressWarnings("resource")
+    public static void
+    tick()
+    {
+        int[] sections = pendingSections;
+
+        if (sections != null)
+        {
+            WorldRenderer worldRenderer = MinecraftClient.getInstance().worldRenderer;
+
+            long deadline = System.nanoTime() + BUDGET_NANOS;
+
+            int index = pendingIndex;
+
+            while (index < pendingCount && System.nanoTime() - deadline < 0)
+            {
+                worldRenderer.scheduleBlockRenders(
+                    sections[3 * index + 0],
+                    sections[3 * index + 1],
+                    sections[3 * index + 2]);
+
+                ++index;
+            }
+
+            pendingIndex = index;
+
+            if (pendingIndex == pendingCount)
+            {
+                pendingSections = null;
+            }
+        }
+    }
+}
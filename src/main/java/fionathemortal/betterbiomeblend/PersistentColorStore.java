@@ -0,0 +1,503 @@
+package fionathemortal.betterbiomeblend;
+
+import fionathemortal.betterbiomeblend.mixin.AccessorBiomeAccess;
+import it.unimi.dsi.fastutil.HashCommon;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.client.color.world.BiomeColors;
+import net.minecraft.client.network.ServerInfo;
+import net.minecraft.server.integrated.IntegratedServer;
+import net.minecraft.util.registry.Registry;
+import net.minecraft.world.World;
+import net.minecraft.world.biome.Biome;
+import net.minecraft.world.biome.source.BiomeArray;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.ChunkStatus;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public final class PersistentColorStore
+{
+    public static final boolean ENABLED = Boolean.getBoolean("betterbiomeblend.persistentCache");
+
+    public static final int SAVE_INTERVAL  = 20 * 30;
+    public static final int FORMAT_VERSION = 2;
+
+    public static final int BIOME_HASH_CACHE_LIMIT = 4096;
+
+    public static final int REGION_SHIFT       = 5;
+    public static final int REGION_CHUNKS      = 1 << REGION_SHIFT;
+    public static final int REGION_CHUNK_MASK  = REGION_CHUNKS - 1;
+    public static final int STORED_COLOR_TYPES = BiomeColorType.LAST + 1;
+    public static final int BIOMES_VALID_BIT   = 1 << STORED_COLOR_TYPES;
+
+    public static final int RECORD_HASH_OFFSET   = Integer.BYTES;
+    public static final int RECORD_COLORS_OFFSET = RECORD_HASH_OFFSET + Long.BYTES;
+    public static final int RECORD_BIOMES_OFFSET = RECORD_COLORS_OFFSET + STORED_COLOR_TYPES * 16 * 16 * Integer.BYTES;
+    public static final int RECORD_SIZE          = RECORD_BIOMES_OFFSET + 16 * 16 * Short.BYTES;
+    public static final int REGION_SIZE          = REGION_CHUNKS * REGION_CHUNKS * RECORD_SIZE;
+
+    public static final class ColorRecord
+    {
+        public final int   chunkX;
+        public final int   chunkZ;
+        public final int   colorType;
+        public final int[] colors;
+
+        public
+        ColorRecord(int chunkX, int chunkZ, int colorType, int[] colors)
+        {
+            this.chunkX    = chunkX;
+            this.chunkZ    = chunkZ;
+            this.colorType = colorType;
+            this.colors    = colors;
+        }
+    }
+
+    public static final class BiomeRecord
+    {
+        public final int   chunkX;
+        public final int   chunkZ;
+        public final int[] rawIds;
+
+        public
+        BiomeRecord(int chunkX, int chunkZ, int[] rawIds)
+        {
+            this.chunkX = chunkX;
+            this.chunkZ = chunkZ;
+            this.rawIds = rawIds;
+        }
+    }
+
+    public static final ExecutorService
+    writer = Executors.newSingleThreadExecutor((runnable) ->
+    {
+        Thread thread = new Thread(runnable, "Better Biome Blend Persistence");
+
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+
+        return thread;
+    });
+
+    public final World                                     world;
+    public final Registry<Biome>                           biomeRegistry;
+    public final Path                                      directory;
+    public final ConcurrentHashMap<Long, MappedByteBuffer> regions     = new ConcurrentHashMap<>();
+    public final ConcurrentHashMap<Long, Long>             biomeHashes = new ConcurrentHashMap<>();
+
+    public int ticksSinceSave;
+
+    public volatile boolean closed;
+
+    public
+    PersistentColorStore(World world, Registry<Biome> biomeRegistry, Path directory)
+    {
+        this.world         = world;
+        this.biomeRegistry = biomeRegistry;
+        this.directory     = directory;
+    }
+
+    public static String
+    sanitizePathName(String name)
+    {
+        String result = name.toLowerCase().replaceAll("[^a-z0-9._-]", "_");
+
+        return result;
+    }
+
+    @SuppressWarnings("resource")
+    public static String
+    getWorldName()
+    {
+        MinecraftClient  client = MinecraftClient.getInstance();
+        ServerInfo       entry  = client.getCurrentServerEntry();
+        IntegratedServer server = client.getServer();
+
+        String result = "unknown";
+
+        if (entry != null)
+        {
+            result = "server-" + entry.address;
+        }
+        else if (server != null)
+        {
+            result = "local-" + server.getSaveProperties().getLevelName();
+        }
+
+        return result;
+    }
+
+    public static long
+    getColorFingerprint(World world, Registry<Biome> biomeRegistry)
+    {
+        long result = HashCommon.mix(((AccessorBiomeAccess)world.getBiomeAccess()).getSeed() ^ FORMAT_VERSION);
+
+        for (Biome biome : biomeRegistry)
+        {
+            long biomeHash = biomeRegistry.getId(biome).toString().hashCode();
+
+            biomeHash = 31 * biomeHash + biomeRegistry.getRawId(biome);
+            biomeHash = 31 * biomeHash + BiomeColors.GRASS_COLOR.getColor(biome, 0.0, 0.0);
+            biomeHash = 31 * biomeHash + BiomeColors.WATER_COLOR.getColor(biome, 0.0, 0.0);
+            biomeHash = 31 * biomeHash + BiomeColors.FOLIAGE_COLOR.getColor(biome, 0.0, 0.0);
+
+            result = HashCommon.mix(result ^ biomeHash);
+        }
+
+        return result;
+    }
+
+    @SuppressWarnings("resource")
+    public static PersistentColorStore
+    open(World world)
+    {
+        PersistentColorStore result = null;
+
+        if (ENABLED)
+        {
+            Registry<Biome> biomeRegistry = world.getRegistryManager().get(Registry.BIOME_KEY);
+
+            long fingerprint = getColorFingerprint(world, biomeRegistry);
+
+            Path directory = MinecraftClient.getInstance().runDirectory.toPath()
+                .resolve(BetterBiomeBlend.MOD_ID)
+                .resolve(sanitizePathName(getWorldName()))
+                .resolve(sanitizePathName(world.getRegistryKey().getValue().toString()))
+                .resolve(Long.toHexString(fingerprint));
+
+            try
+            {
+                Files.createDirectories(directory);
+
+                result = new PersistentColorStore(world, biomeRegistry, directory);
+            }
+            catch (IOException e)
+            {
+                BetterBiomeBlendClient.LOGGER.warn("Could not open persistent color cache in {}", directory, e);
+            }
+        }
+
+        return result;
+    }
+
+    public void
+    invalidateBiomeHash(int chunkX, int chunkZ)
+    {
+        biomeHashes.remove(ColorCaching.getChunkKey(chunkX, chunkZ, 0));
+    }
+
+    public long
+    getBiomeHash(int chunkX, int chunkZ)
+    {
+        long key = ColorCaching.getChunkKey(chunkX, chunkZ, 0);
+
+        Long cached = biomeHashes.get(key);
+
+        long result;
+
+        if (cached != null)
+        {
+            result = cached;
+        }
+        else
+        {
+            result = computeBiomeHash(chunkX, chunkZ);
+
+            if (result != 0)
+            {
+                if (biomeHashes.size() >= BIOME_HASH_CACHE_LIMIT)
+                {
+                    biomeHashes.clear();
+                }
+
+                biomeHashes.put(key, result);
+            }
+        }
+
+        return result;
+    }
+
+    public long
+    computeBiomeHash(int chunkX, int chunkZ)
+    {
+        long result = 0;
+
+        Chunk chunk = world.getChunk(chunkX, chunkZ, ChunkStatus.BIOMES, false);
+
+        if (chunk != null)
+        {
+            BiomeArray biomeArray = chunk.getBiomeArray();
+
+            if (biomeArray != null)
+            {
+                result = 1;
+
+                for (int rawId : biomeArray.toIntArray())
+                {
+                    result = HashCommon.mix(result + rawId);
+                }
+
+                if (result == 0)
+                {
+                    result = 1;
+                }
+            }
+        }
+
+        return result;
+    }
+
+    public static boolean
+    isRecordCurrent(MappedByteBuffer region, int recordOffset, long biomeHash)
+    {
+        boolean result = (biomeHash != 0 && region.getLong(recordOffset + RECORD_HASH_OFFSET) == biomeHash);
+
+        return result;
+    }
+
+    public static void
+    prepareRecord(MappedByteBuffer region, int recordOffset, long biomeHash)
+    {
+        if (!isRecordCurrent(region, recordOffset, biomeHash))
+        {
+            region.putInt(recordOffset, 0);
+            region.putLong(recordOffset + RECORD_HASH_OFFSET, biomeHash);
+        }
+    }
+
+    public static long
+    getRegionKey(int regionX, int regionZ)
+    {
+        long result = ((long)regionX << 32) | (regionZ & 0xFFFFFFFFL);
+
+        return result;
+    }
+
+    public MappedByteBuffer
+    openRegion(int regionX, int regionZ)
+    {
+        MappedByteBuffer result = null;
+
+        Path path = directory.resolve("r." + regionX + "." + regionZ + ".bin");
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE))
+        {
+            result = channel.map(FileChannel.MapMode.READ_WRITE, 0, REGION_SIZE);
+        }
+        catch (IOException e)
+        {
+            BetterBiomeBlendClient.LOGGER.warn("Could not map persistent color region {}", path, e);
+        }
+
+        return result;
+    }
+
+    public MappedByteBuffer
+    getRegion(int chunkX, int chunkZ)
+    {
+        int regionX = chunkX >> REGION_SHIFT;
+        int regionZ = chunkZ >> REGION_SHIFT;
+
+        MappedByteBuffer result = null;
+
+        if (!closed)
+        {
+            result = regions.computeIfAbsent(getRegionKey(regionX, regionZ), (key) -> openRegion(regionX, regionZ));
+        }
+
+        return result;
+    }
+
+    public static int
+    getRecordOffset(int chunkX, int chunkZ)
+    {
+        int result = RECORD_SIZE * (((chunkZ & REGION_CHUNK_MASK) << REGION_SHIFT) | (chunkX & REGION_CHUNK_MASK));
+
+        return result;
+    }
+
+    public boolean
+    loadColors(int chunkX, int chunkZ, int colorType, int[] colors)
+    {
+        boolean result = false;
+
+        MappedByteBuffer region = getRegion(chunkX, chunkZ);
+
+        if (region != null)
+        {
+            int recordOffset = getRecordOffset(chunkX, chunkZ);
+
+            if (isRecordCurrent(region, recordOffset, getBiomeHash(chunkX, chunkZ)) &&
+                (region.getInt(recordOffset) & (1 << colorType)) != 0)
+            {
+                int colorOffset = recordOffset + RECORD_COLORS_OFFSET + colorType * 16 * 16 * Integer.BYTES;
+
+                for (int index = 0;
+                    index < 16 * 16;
+                    ++index)
+                {
+                    colors[index] = region.getInt(colorOffset + index * Integer.BYTES);
+                }
+
+                result = true;
+            }
+        }
+
+        return result;
+    }
+
+    public void
+    saveColors(int chunkX, int chunkZ, int colorType, int[] colors)
+    {
+        MappedByteBuffer region    = getRegion(chunkX, chunkZ);
+        long             biomeHash = getBiomeHash(chunkX, chunkZ);
+
+        if (region != null && biomeHash != 0)
+        {
+            int recordOffset = getRecordOffset(chunkX, chunkZ);
+            int colorOffset  = recordOffset + RECORD_COLORS_OFFSET + colorType * 16 * 16 * Integer.BYTES;
+
+            prepareRecord(region, recordOffset, biomeHash);
+
+            for (int index = 0;
+                index < 16 * 16;
+                ++index)
+            {
+                region.putInt(colorOffset + index * Integer.BYTES, colors[index]);
+            }
+
+            region.putInt(recordOffset, region.getInt(recordOffset) | (1 << colorType));
+        }
+    }
+
+    public boolean
+    loadBiomes(int chunkX, int chunkZ, BiomeChunk chunk)
+    {
+        boolean result = false;
+
+        MappedByteBuffer region = getRegion(chunkX, chunkZ);
+
+        if (region != null)
+        {
+            int recordOffset = getRecordOffset(chunkX, chunkZ);
+
+            if (isRecordCurrent(region, recordOffset, getBiomeHash(chunkX, chunkZ)) &&
+                (region.getInt(recordOffset) & BIOMES_VALID_BIT) != 0)
+            {
+                int biomeOffset = recordOffset + RECORD_BIOMES_OFFSET;
+
+                result = true;
+
+                for (int index = 0;
+                    index < 16 * 16;
+                    ++index)
+                {
+                    Biome biome = biomeRegistry.get(0xFFFF & region.getShort(biomeOffset + index * Short.BYTES));
+
+                    if (biome != null)
+                    {
+                        chunk.set(index, biome, world);
+                    }
+                    else
+                    {
+                        result = false;
+                    }
+                }
+            }
+        }
+
+        return result;
+    }
+
+    public void
+    saveBiomes(int chunkX, int chunkZ, int[] rawIds)
+    {
+        MappedByteBuffer region    = getRegion(chunkX, chunkZ);
+        long             biomeHash = getBiomeHash(chunkX, chunkZ);
+
+        if (region != null && biomeHash != 0)
+        {
+            int recordOffset = getRecordOffset(chunkX, chunkZ);
+            int biomeOffset  = recordOffset + RECORD_BIOMES_OFFSET;
+
+            prepareRecord(region, recordOffset, biomeHash);
+
+            for (int index = 0;
+                index < 16 * 16;
+                ++index)
+            {
+                region.putShort(biomeOffset + index * Short.BYTES, (short)rawIds[index]);
+            }
+
+            region.putInt(recordOffset, region.getInt(recordOffset) | BIOMES_VALID_BIT);
+        }
+    }
+
+    public void
+    tick(ColorCache colorCache, BiomeCache biomeCache)
+    {
+        if (++ticksSinceSave >= SAVE_INTERVAL)
+        {
+            ticksSinceSave = 0;
+
+            save(colorCache, biomeCache);
+        }
+    }
+
+    public void
+    write(ArrayList<ColorRecord> colorRecords, ArrayList<BiomeRecord> biomeRecords)
+    {
+        for (ColorRecord record : colorRecords)
+        {
+            saveColors(record.chunkX, record.chunkZ, record.colorType, record.colors);
+        }
+
+        for (BiomeRecord record : biomeRecords)
+        {
+            saveBiomes(record.chunkX, record.chunkZ, record.rawIds);
+        }
+    }
+
+    public void
+    save(ColorCache colorCache, BiomeCache biomeCache)
+    {
+        ArrayList<ColorRecord> colorRecords = new ArrayList<>();
+        ArrayList<BiomeRecord> biomeRecords = new ArrayList<>();
+
+        colorCache.collectUnpersisted(colorRecords);
+        biomeCache.collectUnpersisted(biomeRecords);
+
+        if (!colorRecords.isEmpty() || !biomeRecords.isEmpty())
+        {
+            writer.execute(() -> write(colorRecords, biomeRecords));
+        }
+    }
+
+    public void
+    release()
+    {
+        closed = true;
+
+        for (MappedByteBuffer region : regions.values())
+        {
+            region.force();
+        }
+
+        regions.clear();
+    }
+
+    public void
+    close()
+    {
+        writer.execute(this::release);
+    }
+}
@@ -0,0 +1,158 @@
+package fionathemortal.betterbiomeblend;
+
+public final class StackedBoxBlending
+{
+    public static final int PASS_COUNT = 3;
+
+    public static int
+    getPassRadius(int blendRadius, int pass)
+    {
+        int result = (blendRadius + pass) / PASS_COUNT;
+
+        return result;
+    }
+
+    public static float[]
+    getKernel(int blendRadius)
+    {
+        int kernelDim = 2 * blendRadius + 1;
+
+        float[] result  = new float[kernelDim];
+        float[] scratch = new float[kernelDim];
+
+        result[blendRadius] = 1.0f;
+
+        for (int pass = 0;
+            pass < PASS_COUNT;
+            ++pass)
+        {
+            int passRadius = getPassRadius(blendRadius, pass);
+            int passDim    = 2 * passRadius + 1;
+
+            for (int index = 0;
+                index < kernelDim;
+                ++index)
+            {
+                float accumulated = 0;
+
+                for (int offset = Math.max(index - passRadius, 0);
+                    offset <= Math.min(index + passRadius, kernelDim - 1);
+                    ++offset)
+                {
+                    accumulated += result[offset];
+                }
+
+                scratch[index] = accumulated / passDim;
+            }
+
+            System.arraycopy(scratch, 0, result, 0, kernelDim);
+        }
+
+        return result;
+    }
+
+    public static int
+    filterLine(float[] plane, int offset, int stride, int count, int passRadius, float[] prefix)
+    {
+        int passDim = 2 * passRadius + 1;
+        int result  = count - 2 * passRadius;
+
+        prefix[0] = 0;
+
+        for (int index = 0;
+            index < count;
+            ++index)
+        {
+            prefix[index + 1] = prefix[index] + plane[offset + stride * index];
+        }
+
+        for (int index = 0;
+            index < result;
+            ++index)
+        {
+            plane[offset + stride * index] = (prefix[index + passDim] - prefix[index]) / passDim;
+        }
+
+        return result;
+    }
+
+    public static void
+    filterPlane(float[] plane, ColorBlendBuffer blendBuffer)
+    {
+        int blendRadius   = blendBuffer.blendRadius;
+        int outputDim     = blendBuffer.outputDim;
+        int blendCacheDim = outputDim + 2 * blendRadius;
+
+        blendBuffer.allocatePrefixSum();
+
+        float[] prefix = blendBuffer.prefixR;
+
+        for (int z = 0;
+            z < blendCacheDim;
+            ++z)
+        {
+            int count = blendCacheDim;
+
+            for (int pass = 0;
+                pass < PASS_COUNT;
+                ++pass)
+            {
+                int passRadius = getPassRadius(blendRadius, pass);
+
+                if (passRadius > 0)
+                {
+                    count = filterLine(plane, blendCacheDim * z, 1, count, passRadius, prefix);
+                }
+            }
+        }
+
+        for (int x = 0;
+            x < outputDim;
+            ++x)
+        {
+            int count = blendCacheDim;
+
+            for (int pass = 0;
+                pass < PASS_COUNT;
+                ++pass)
+            {
+                int passRadius = getPassRadius(blendRadius, pass);
+
+                if (passRadius > 0)
+                {
+                    count = filterLine(plane, x, blendCacheDim, count, passRadius, prefix);
+                }
+            }
+        }
+    }
+
+    public static void
+    blendColorsForChunk(int[] result, ColorBlendBuffer blendBuffer)
+    {
+        int outputDim     = blendBuffer.outputDim;
+        int blendCacheDim = outputDim + 2 * blendBuffer.blendRadius;
+
+        ColorBlending.convertToLinearPlanes(blendBuffer, 0, 0, blendCacheDim, blendCacheDim);
+
+        filterPlane(blendBuffer.linearR, blendBuffer);
+        filterPlane(blendBuffer.linearG, blendBuffer);
+        filterPlane(blendBuffer.linearB, blendBuffer);
+
+        for (int z = 0;
+            z < outputDim;
+            ++z)
+        {
+            for (int x = 0;
+                x < outputDim;
+                ++x)
+            {
+                int index = blendCacheDim * z + x;
+
+                result[outputDim * z + x] = Color.makeRGBAWithFullAlpha(
+                    Color.linearFloatTosRGBByte(blendBuffer.linearR[index]),
+                    Color.linearFloatTosRGBByte(blendBuffer.linearG[index]),
+                    Color.linearFloatTosRGBByte(blendBuffer.linearB[index]));
+            }
+        }
+    }
+}
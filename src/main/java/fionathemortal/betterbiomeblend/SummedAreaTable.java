@@ -0,0 +1,175 @@
+package fionathemortal.betterbiomeblend;
+
+import net.minecraft.world.World;
+import net.minecraft.world.level.ColorResolver;
+
+public final class SummedAreaTable
+{
+    public static final boolean ENABLED = Boolean.getBoolean("betterbiomeblend.summedAreaTables");
+
+    public static final int TABLE_RADIUS = BetterBiomeBlendClient.BIOME_BLEND_RADIUS_DIRECT_MAX;
+    public static final int TABLE_DIM    = 16 + 2 * TABLE_RADIUS + 1;
+    public static final int TABLE_AREA   = TABLE_DIM * TABLE_DIM;
+
+    public static final int VALID_INDEX = 0;
+    public static final int R_OFFSET    = 1;
+    public static final int G_OFFSET    = 1 + TABLE_AREA;
+    public static final int B_OFFSET    = 1 + TABLE_AREA * 2;
+    public static final int SLOT_SIZE   = 1 + TABLE_AREA * 3;
+    public static final int SLOT_BYTES  = Integer.BYTES * SLOT_SIZE;
+
+    public static final long CACHE_BYTES = Long.getLong("betterbiomeblend.summedAreaTableCacheBytes", 16L << 20);
+
+    public static boolean
+    isValid(ColorChunk table)
+    {
+        boolean result = (table.getAcquire(VALID_INDEX) != 0);
+
+        return result;
+    }
+
+    public static void
+    build(ColorChunk table, byte[] color)
+    {
+        final int colorDim = TABLE_DIM - 1;
+
+        for (int x = 0;
+            x < TABLE_DIM;
+            ++x)
+        {
+            table.set(R_OFFSET + x, 0);
+            table.set(G_OFFSET + x, 0);
+            table.set(B_OFFSET + x, 0);
+        }
+
+        for (int z = 1;
+            z < TABLE_DIM;
+            ++z)
+        {
+            int rowR = 0;
+            int rowG = 0;
+            int rowB = 0;
+
+            int tableLine = TABLE_DIM * z;
+            int colorLine = 3 * colorDim * (z - 1);
+
+            table.set(R_OFFSET + tableLine, 0);
+            table.set(G_OFFSET + tableLine, 0);
+            table.set(B_OFFSET + tableLine, 0);
+
+            for (int x = 1;
+                x < TABLE_DIM;
+                ++x)
+            {
+                int tableIndex = tableLine + x;
+                int colorIndex = colorLine + 3 * (x - 1);
+
+                rowR += Color.sRGBByteToLinearFixed(0xFF & color[colorIndex + 0]);
+                rowG += Color.sRGBByteToLinearFixed(0xFF & color[colorIndex + 1]);
+                rowB += Color.sRGBByteToLinearFixed(0xFF & color[colorIndex + 2]);
+
+                table.set(R_OFFSET + tableIndex, rowR + table.get(R_OFFSET + tableIndex - TABLE_DIM));
+                table.set(G_OFFSET + tableIndex, rowG + table.get(G_OFFSET + tableIndex - TABLE_DIM));
+                table.set(B_OFFSET + tableIndex, rowB + table.get(B_OFFSET + tableIndex - TABLE_DIM));
+            }
+        }
+
+        table.setRelease(VALID_INDEX, 1);
+    }
+
+    public static int
+    getBoxSum(ColorChunk table, int offset, int minX, int minZ, int maxX, int maxZ)
+    {
+        int result =
+            table.get(offset + TABLE_DIM * maxZ + maxX) -
+            table.get(offset + TABLE_DIM * minZ + maxX) -
+            table.get(offset + TABLE_DIM * maxZ + minX) +
+            table.get(offset + TABLE_DIM * minZ + minX);
+
+        return result;
+    }
+
+    public static int
+    getBlendedColor(ColorChunk table, int blendRadius, int x, int z)
+    {
+        int blendDim      = 2 * blendRadius + 1;
+        int blendCount    = blendDim * blendDim;
+        int blendRounding = blendCount / 2;
+
+        int minX = x + TABLE_RADIUS - blendRadius;
+        int minZ = z + TABLE_RADIUS - blendRadius;
+        int maxX = minX + blendDim;
+        int maxZ = minZ + blendDim;
+
+        int sumR = getBoxSum(table, R_OFFSET, minX, minZ, maxX, maxZ);
+        int sumG = getBoxSum(table, G_OFFSET, minX, minZ, maxX, maxZ);
+        int sumB = getBoxSum(table, B_OFFSET, minX, minZ, maxX, maxZ);
+
+        int result = Color.makeRGBAWithFullAlpha(
+            Color.linearFixedTosRGBByte((sumR + blendRounding) / blendCount),
+            Color.linearFixedTosRGBByte((sumG + blendRounding) / blendCount),
+            Color.linearFixedTosRGBByte((sumB + blendRounding) / blendCount));
+
+        return result;
+    }
+
+    public static void
+    blendChunk(ColorChunk table, int blendRadius, ColorChunk result)
+    {
+        for (int z = 0;
+            z < 16;
+            ++z)
+        {
+            for (int x = 0;
+                x < 16;
+                ++x)
+            {
+                result.set(16 * z + x, getBlendedColor(table, blendRadius, x, z));
+            }
+        }
+    }
+
+    public static boolean
+    generateBlendedColorChunk(
+        World         world,
+        ColorResolver colorResolverIn,
+        int           colorType,
+        int           chunkX,
+        int           chunkZ,
+        int           blendRadius,
+        ColorCache    tableCache,
+        ColorCache    colorCache,
+        BiomeCache    biomeCache,
+        ColorChunk    result)
+    {
+        boolean generated = false;
+
+        if (ENABLED                                                             &&
+            BlendFilter.isBoxFilter()                                           &&
+            !ColorCaching.SECTION_AWARE                                         &&
+            blendRadius >  BetterBiomeBlendClient.BIOME_BLEND_RADIUS_MIN        &&
+            blendRadius <= BetterBiomeBlendClient.BIOME_BLEND_RADIUS_DIRECT_MAX)
+        {
+            ColorChunk table = tableCache.getOrDefaultInitializeChunk(chunkX, ColorCaching.COLUMN_SECTION, chunkZ, colorType);
+
+            if (!isValid(table))
+            {
+                ColorBlendBuffer gatherBuffer = ColorBlending.acquireBlendBuffer(TABLE_RADIUS);
+
+                ColorBlending.gatherRawColorsToCaches(world, colorResolverIn, colorType, chunkX, ColorCaching.COLUMN_SECTION, chunkZ, TABLE_RADIUS, colorCache, biomeCache, gatherBuffer.color);
+
+                build(table, gatherBuffer.color);
+
+                ColorBlending.releaseBlendBuffer(gatherBuffer);
+            }
+
+            blendChunk(table, blendRadius, result);
+
+            tableCache.releaseChunk(table);
+
+            generated = true;
+        }
+
+        return generated;
+    }
+}
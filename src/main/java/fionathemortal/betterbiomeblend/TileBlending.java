@@ -0,0 +1,230 @@
+package fionathemortal.betterbiomeblend;
+
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.ChunkStatus;
+import net.minecraft.world.level.ColorResolver;
+
+public final class TileBlending
+{
+    public static final boolean ENABLED = Boolean.getBoolean("betterbiomeblend.tileBlending");
+
+    public static final int TILE_CHUNKS = 4;
+    public static final int TILE_DIM    = 16 * TILE_CHUNKS;
+
+    public static final ThreadLocal<ColorBlendBuffer> threadLocalTileBuffer = new ThreadLocal<>();
+
+    public static int
+    getTileOrigin(int chunkCoord)
+    {
+        int result = chunkCoord & ~(TILE_CHUNKS - 1);
+
+        return result;
+    }
+
+    public static ColorBlendBuffer
+    acquireTileBuffer(int blendRadius)
+    {
+        ColorBlendBuffer result = threadLocalTileBuffer.get();
+
+        if (result == null || result.blendRadius != blendRadius)
+        {
+            result = new ColorBlendBuffer(blendRadius, TILE_DIM);
+
+            threadLocalTileBuffer.set(result);
+        }
+
+        return result;
+    }
+
+    public static boolean
+    isTileNeighborhoodLoaded(World world, int tileX, int tileZ)
+    {
+        boolean result = true;
+
+        for (int chunkZ = tileZ - 1;
+            chunkZ <= tileZ + TILE_CHUNKS && result;
+            ++chunkZ)
+        {
+            for (int chunkX = tileX - 1;
+                chunkX <= tileX + TILE_CHUNKS;
+                ++chunkX)
+            {
+                if (world.getChunk(chunkX, chunkZ, ChunkStatus.BIOMES, false) == null)
+                {
+                    result = false;
+                    break;
+                }
+            }
+        }
+
+        return result;
+    }
+
+    public static void
+    gatherTileColors(
+        World         world,
+        ColorResolver colorResolver,
+        int           colorType,
+        int           tileX,
+        int           tileZ,
+        int           blendRadius,
+        ColorCache    colorCache,
+        BiomeCache    biomeCache,
+        byte[]        blendBuffer)
+    {
+        final int blendDim = TILE_DIM + 2 * blendRadius;
+
+        final int bufferBlockX = 16 * tileX - blendRadius;
+        final int bufferBlockZ = 16 * tileZ - blendRadius;
+
+        for (int chunkZ = tileZ - 1;
+            chunkZ <= tileZ + TILE_CHUNKS;
+            ++chunkZ)
+        {
+            for (int chunkX = tileX - 1;
+                chunkX <= tileX + TILE_CHUNKS;
+                ++chunkX)
+            {
+                int chunkBlockX = 16 * chunkX;
+                int chunkBlockZ = 16 * chunkZ;
+
+                int cacheMinX = Math.max(bufferBlockX - chunkBlockX, 0);
+                int cacheMinZ = Math.max(bufferBlockZ - chunkBlockZ, 0);
+                int cacheMaxX = Math.min(bufferBlockX + blendDim - chunkBlockX, 16);
+                int cacheMaxZ = Math.min(bufferBlockZ + blendDim - chunkBlockZ, 16);
+
+                if (cacheMinX < cacheMaxX && cacheMinZ < cacheMaxZ)
+                {
+                    BiomeChunk biomeChunk = biomeCache.getOrDefaultInitializeChunk(chunkX, ColorCaching.COLUMN_SECTION, chunkZ);
+                    ColorChunk colorChunk = colorCache.getOrDefaultInitializeChunk(chunkX, ColorCaching.COLUMN_SECTION, chunkZ, colorType);
+
+                    ColorBlending.gatherColorsForRect(
+                        world,
+                        colorResolver,
+                        chunkX,
+                        ColorCaching.COLUMN_SECTION,
+                        chunkZ,
+                        cacheMinX,
+                        cacheMinZ,
+                        cacheMaxX,
+                        cacheMaxZ,
+                        colorChunk,
+                        biomeChunk,
+                        blendBuffer,
+                        blendDim,
+                        chunkBlockX + cacheMinX - bufferBlockX,
+                        chunkBlockZ + cacheMinZ - bufferBlockZ,
+                        true,
+                        0);
+
+                    colorCache.releaseChunk(colorChunk);
+                    biomeCache.releaseChunk(biomeChunk);
+                }
+            }
+        }
+    }
+
+    public static void
+    abandonTileChunks(ColorChunk[] tileChunks, ColorChunk chunk, BlendCache blendCache)
+    {
+        for (ColorChunk tileChunk : tileChunks)
+        {
+            if (tileChunk != null && tileChunk != chunk)
+            {
+                blendCache.abandonChunk(tileChunk);
+            }
+        }
+    }
+
+    public static boolean
+    generateTileForChunk(
+        World         world,
+        ColorResolver colorResolverIn,
+        int           colorType,
+        int           chunkX,
+        int           chunkZ,
+        int           blendRadius,
+        ColorChunk    chunk,
+        BlendCache    blendCache,
+        ColorCache    colorCache,
+        BiomeCache    biomeCache)
+    {
+        boolean result = false;
+
+        int tileX = getTileOrigin(chunkX);
+        int tileZ = getTileOrigin(chunkZ);
+
+        if (ENABLED                                                             &&
+            BlendFilter.isBoxFilter()                                           &&
+            !ColorCaching.SECTION_AWARE                                         &&
+            blendRadius >  BetterBiomeBlendClient.BIOME_BLEND_RADIUS_MIN        &&
+            blendRadius <= BetterBiomeBlendClient.BIOME_BLEND_RADIUS_DIRECT_MAX &&
+            isTileNeighborhoodLoaded(world, tileX, tileZ))
+        {
+            ColorChunk[] tileChunks = new ColorChunk[TILE_CHUNKS * TILE_CHUNKS];
+
+            for (int index = 0;
+                index < tileChunks.length;
+                ++index)
+            {
+                int tileChunkX = tileX + (index % TILE_CHUNKS);
+                int tileChunkZ = tileZ + (index / TILE_CHUNKS);
+
+                if (tileChunkX == chunkX && tileChunkZ == chunkZ)
+                {
+                    tileChunks[index] = chunk;
+                }
+                else
+                {
+                    tileChunks[index] = blendCache.tryReserveChunk(tileChunkX, ColorCaching.COLUMN_SECTION, tileChunkZ, colorType, blendRadius);
+                }
+            }
+
+            ColorBlendBuffer blendBuffer = acquireTileBuffer(blendRadius);
+
+            try
+            {
+                gatherTileColors(world, colorResolverIn, colorType, tileX, tileZ, blendRadius, colorCache, biomeCache, blendBuffer.color);
+
+                ColorBlending.blendColorsForChunk(world, blendBuffer.blended, blendBuffer);
+            }
+            catch (RuntimeException | Error e)
+            {
+                abandonTileChunks(tileChunks, chunk, blendCache);
+
+                throw e;
+            }
+
+            for (int index = 0;
+                index < tileChunks.length;
+                ++index)
+            {
+                ColorChunk tileChunk = tileChunks[index];
+
+                if (tileChunk != null)
+                {
+                    int tileOffset = 16 * (index % TILE_CHUNKS) + TILE_DIM * 16 * (index / TILE_CHUNKS);
+
+                    for (int z = 0;
+                        z < 16;
+                        ++z)
+                    {
+                        tileChunk.set(16 * z, blendBuffer.blended, tileOffset + TILE_DIM * z, 16);
+                    }
+
+                    if (tileChunk != chunk)
+                    {
+                        tileChunk.isColumnDivergent = false;
+
+                        blendCache.putChunk(tileChunk);
+                        blendCache.releaseChunk(tileChunk);
+                    }
+                }
+            }
+
+            result = true;
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,20 @@
+package fionathemortal.betterbiomeblend.mixin;
+
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.gen.Accessor;
+
+import net.minecraft.world.biome.source.BiomeAccess;
+import net.minecraft.world.biome.source.BiomeAccessType;
+
+@Mixin(BiomeAccess.class)
+public interface AccessorBiomeAccess
+{
+    @Accessor()
+    BiomeAccess.Storage getStorage();
+
+    @Accessor()
+    long getSeed();
+
+    @Accessor()
+    BiomeAccessType getType();
+}
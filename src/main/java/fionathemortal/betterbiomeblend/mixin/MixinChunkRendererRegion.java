@@ -0,0 +1,168 @@
+package fionathemortal.betterbiomeblend.mixin;
+
+import fionathemortal.betterbiomeblend.BetterBiomeBlendClient;
+import fionathemortal.betterbiomeblend.BiomeColorType;
+import fionathemortal.betterbiomeblend.BlendedColorRegion;
+import fionathemortal.betterbiomeblend.BlendedColorWorld;
+import fionathemortal.betterbiomeblend.ColorCaching;
+import fionathemortal.betterbiomeblend.ColorChunk;
+import net.minecraft.client.render.chunk.ChunkRendererRegion;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import net.minecraft.world.level.ColorResolver;
+import org.spongepowered.asm.mixin.Final;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Overwrite;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.Unique;
+
+import java.util.Arrays;
+
+@Mixin(ChunkRendererRegion.class)
+public abstract class MixinChunkRendererRegion implements BlendedColorRegion
+{
+    @Unique
+    private static final int SLOT_COUNT = 4 * 4 * 2;
+
+    @Shadow
+    @Final
+    protected World world;
+
+    @Unique
+    private ColorResolver[] betterBiomeBlend$colorResolvers = new ColorResolver[BiomeColorType.LAST + 1];
+
+    @Unique
+    private int[] betterBiomeBlend$colorTypes = new int[BiomeColorType.LAST + 1];
+
+    @Unique
+    private int betterBiomeBlend$colorResolverCount;
+
+    @Unique
+    private ColorChunk[][] betterBiomeBlend$colorChunks = new ColorChunk[BiomeColorType.LAST + 1][];
+
+    @Unique
+    private int
+    betterBiomeBlend$getColorType(ColorResolver colorResolver)
+    {
+        int index = 0;
+
+        while (index < betterBiomeBlend$colorResolverCount &&
+               betterBiomeBlend$colorResolvers[index] != colorResolver)
+        {
+            ++index;
+        }
+
+        if (index == betterBiomeBlend$colorResolverCount)
+        {
+            if (index == betterBiomeBlend$colorResolvers.length)
+            {
+                betterBiomeBlend$colorResolvers = Arrays.copyOf(betterBiomeBlend$colorResolvers, 2 * index);
+                betterBiomeBlend$colorTypes     = Arrays.copyOf(betterBiomeBlend$colorTypes,     2 * index);
+            }
+
+            betterBiomeBlend$colorResolvers[index] = colorResolver;
+            betterBiomeBlend$colorTypes[index]     = ColorCaching.getColorType(colorResolver);
+
+            ++betterBiomeBlend$colorResolverCount;
+        }
+
+        int result = betterBiomeBlend$colorTypes[index];
+
+        return result;
+    }
+
+    @Unique
+    private ColorChunk
+    betterBiomeBlend$getColorChunk(BlendedColorWorld blendedColorWorld, ColorResolver colorResolver, int colorType, int chunkX, int blockY, int chunkZ)
+    {
+        int sectionY    = ColorCaching.getSectionY(blockY);
+        int blendRadius = BetterBiomeBlendClient.getBlendRadiusSetting();
+
+        if (colorType >= betterBiomeBlend$colorChunks.length)
+        {
+            betterBiomeBlend$colorChunks = Arrays.copyOf(betterBiomeBlend$colorChunks, colorType + 1);
+        }
+
+        ColorChunk[] chunks = betterBiomeBlend$colorChunks[colorType];
+
+        if (chunks == null)
+        {
+            chunks = new ColorChunk[SLOT_COUNT];
+
+            betterBiomeBlend$colorChunks[colorType] = chunks;
+        }
+
+        int slot = (chunkX & 3) + 4 * (chunkZ & 3) + 16 * (sectionY & 1);
+
+        long columnKey  = ColorCaching.getBlendChunkKey(chunkX, ColorCaching.COLUMN_SECTION, chunkZ, colorType, blendRadius);
+        long sectionKey = ColorCaching.getBlendChunkKey(chunkX, sectionY, chunkZ, colorType, blendRadius);
+
+        ColorChunk result = chunks[slot];
+
+        if (result == null || (result.key != columnKey && result.key != sectionKey))
+        {
+            if (result != null)
+            {
+                blendedColorWorld.betterBiomeBlend$releaseBlendedChunk(result);
+            }
+
+            result = blendedColorWorld.betterBiomeBlend$acquireBlendedChunk(colorResolver, colorType, chunkX, blockY, chunkZ);
+
+            chunks[slot] = result;
+        }
+
+        return result;
+    }
+
+    @Override
+    public void
+    betterBiomeBlend$releaseColorChunks()
+    {
+        if (world instanceof BlendedColorWorld blendedColorWorld)
+        {
+            for (ColorChunk[] chunks : betterBiomeBlend$colorChunks)
+            {
+                if (chunks != null)
+                {
+                    for (int slot = 0;
+                        slot < SLOT_COUNT;
+                        ++slot)
+                    {
+                        if (chunks[slot] != null)
+                        {
+                            blendedColorWorld.betterBiomeBlend$releaseBlendedChunk(chunks[slot]);
+
+                            chunks[slot] = null;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Overwrite
+    public int
+    getColor(BlockPos blockPosIn, ColorResolver colorResolverIn)
+    {
+        int result;
+
+        int colorType = betterBiomeBlend$getColorType(colorResolverIn);
+
+        if (world instanceof BlendedColorWorld blendedColorWorld &&
+            colorType != ColorCaching.UNCACHED_COLOR_TYPE)
+        {
+            int x = blockPosIn.getX();
+            int z = blockPosIn.getZ();
+
+            ColorChunk chunk = betterBiomeBlend$getColorChunk(blendedColorWorld, colorResolverIn, colorType, x >> 4, blockPosIn.getY(), z >> 4);
+
+            result = chunk.getColor(x, z);
+        }
+        else
+        {
+            result = world.getColor(blockPosIn, colorResolverIn);
+        }
+
+        return result;
+    }
+}
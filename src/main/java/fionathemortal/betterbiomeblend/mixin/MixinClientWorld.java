@@ -2,7 +2,6 @@ package fionathemortal.betterbiomeblend.mixin;
 
 import fionathemortal.betterbiomeblend.*;
 import it.unimi.dsi.fastutil.objects.Object2ObjectArrayMap;
-import net.minecraft.client.color.world.BiomeColors;
 import net.minecraft.client.world.BiomeColorCache;
 import net.minecraft.client.world.ClientWorld;
 import net.minecraft.util.math.BlockPos;
@@ -21,63 +20,47 @@ import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 
+import java.util.function.BooleanSupplier;
 import java.util.function.Supplier;
 
 @Mixin(ClientWorld.class)
-public abstract class MixinClientWorld extends World
+public abstract class MixinClientWorld extends World implements BlendedColorWorld
 {
     @Shadow
     private Object2ObjectArrayMap<ColorResolver, BiomeColorCache> colorCache =
         new Object2ObjectArrayMap<>();
 
     @Unique
-    private final BlendCache betterBiomeBlend$blendColorCache = new BlendCache(2048);
+    private final BlendCache betterBiomeBlend$blendColorCache = new BlendCache(0);
 
     @Unique
-    private final ColorCache betterBiomeBlend$chunkColorCache = new ColorCache(512);
+    private final ColorCache betterBiomeBlend$chunkColorCache = new ColorCache(0);
 
     @Unique
-    private final BiomeCache betterBiomeBlend$chunkBiomeCache = new BiomeCache(32);
+    private final BiomeCache betterBiomeBlend$chunkBiomeCache = new BiomeCache(0);
 
     @Unique
-    private final ThreadLocal<ColorChunk> betterBiomeBlend$threadLocalWaterChunk =
-        ThreadLocal.withInitial(
-            () ->
-            {
-                ColorChunk chunk = new ColorChunk();
-                chunk.acquire();
-                return chunk;
-            });
+    private final ColorCache betterBiomeBlend$summedAreaTableCache =
+        new ColorCache(0, "SummedAreaTableCache", SummedAreaTable.SLOT_SIZE, 0);
 
     @Unique
-    private final ThreadLocal<ColorChunk> betterBiomeBlend$threadLocalGrassChunk =
-        ThreadLocal.withInitial(
-            () ->
-            {
-                ColorChunk chunk = new ColorChunk();
-                chunk.acquire();
-                return chunk;
-            });
+    private final ColorCache betterBiomeBlend$reducedColorCache =
+        new ColorCache(0, "ReducedColorCache", HierarchicalBlending.SLOT_SIZE);
 
     @Unique
-    private final ThreadLocal<ColorChunk> betterBiomeBlend$threadLocalFoliageChunk =
-        ThreadLocal.withInitial(
-            () ->
-            {
-                ColorChunk chunk = new ColorChunk();
-                chunk.acquire();
-                return chunk;
-            });
+    private final CacheBudget betterBiomeBlend$cacheBudget = new CacheBudget(
+        betterBiomeBlend$blendColorCache,
+        betterBiomeBlend$chunkColorCache,
+        betterBiomeBlend$chunkBiomeCache,
+        betterBiomeBlend$summedAreaTableCache,
+        betterBiomeBlend$reducedColorCache);
 
     @Unique
-    private final ThreadLocal<ColorChunk> betterBiomeBlend$threadLocalGenericChunk =
-        ThreadLocal.withInitial(
-            () ->
-            {
-                ColorChunk chunk = new ColorChunk();
-                chunk.acquire();
-                return chunk;
-            });
+    private PersistentColorStore betterBiomeBlend$persistentStore;
+
+    @Unique
+    private final ThreadLocal<ColorChunkLookaside> betterBiomeBlend$threadLocalLookaside =
+        ThreadLocal.withInitial(ColorChunkLookaside::new);
 
     protected
     MixinClientWorld(
@@ -92,76 +75,262 @@ public abstract class MixinClientWorld extends World
         super(worldInfo, dimension, dimensionType, profiler, isRemote, isDebug, seed);
     }
 
+    @Inject(method = "<init>", at = @At("RETURN"))
+    public void
+    onInit(CallbackInfo ci)
+    {
+        CacheMetrics.publish(
+            betterBiomeBlend$blendColorCache.metrics,
+            betterBiomeBlend$chunkColorCache.metrics,
+            betterBiomeBlend$chunkBiomeCache.metrics,
+            betterBiomeBlend$summedAreaTableCache.metrics,
+            betterBiomeBlend$reducedColorCache.metrics);
+
+        CustomColorResolverCompatibility.recycleReleasedColorTypes();
+
+        betterBiomeBlend$cacheBudget.sectionCount = ColorCaching.getMaxCachedSectionY(this) - ColorCaching.getMinCachedSectionY(this);
+
+        betterBiomeBlend$openPersistentStore();
+    }
+
+    @Unique
+    private void
+    betterBiomeBlend$openPersistentStore()
+    {
+        betterBiomeBlend$persistentStore = PersistentColorStore.open(this);
+
+        betterBiomeBlend$chunkColorCache.store = betterBiomeBlend$persistentStore;
+        betterBiomeBlend$chunkBiomeCache.store = betterBiomeBlend$persistentStore;
+    }
+
+    @Inject(method = "tick", at = @At("HEAD"))
+    public void
+    onTick(BooleanSupplier shouldKeepTicking, CallbackInfo ci)
+    {
+        betterBiomeBlend$cacheBudget.update();
+
+        if (betterBiomeBlend$persistentStore != null)
+        {
+            betterBiomeBlend$persistentStore.tick(betterBiomeBlend$chunkColorCache, betterBiomeBlend$chunkBiomeCache);
+        }
+    }
+
     @Inject(method = "reloadColor", at = @At("HEAD"))
     public void
     onReloadColor(CallbackInfo ci)
     {
+        if (betterBiomeBlend$persistentStore != null)
+        {
+            betterBiomeBlend$persistentStore.save(betterBiomeBlend$chunkColorCache, betterBiomeBlend$chunkBiomeCache);
+        }
+
         betterBiomeBlend$blendColorCache.invalidateAll();
         betterBiomeBlend$chunkColorCache.invalidateAll();
         betterBiomeBlend$chunkBiomeCache.invalidateAll();
+        betterBiomeBlend$summedAreaTableCache.invalidateAll();
+        betterBiomeBlend$reducedColorCache.invalidateAll();
+
+        CustomColorResolverCompatibility.recycleReleasedColorTypes();
+
+        if (betterBiomeBlend$persistentStore != null)
+        {
+            betterBiomeBlend$persistentStore.close();
+        }
+
+        betterBiomeBlend$openPersistentStore();
     }
 
     @Inject(method = "resetChunkColor", at = @At("HEAD"))
     public void
     onResetChunkColor(ChunkPos position, CallbackInfo ci)
     {
-        betterBiomeBlend$blendColorCache.invalidateChunk(position.x, position.z);
-        betterBiomeBlend$chunkColorCache.invalidateSmallNeighborhood(position.x, position.z);
-        betterBiomeBlend$chunkBiomeCache.invalidateSmallNeighborhood(position.x, position.z);
+        int minSectionY = ColorCaching.getMinCachedSectionY(this);
+        int maxSectionY = ColorCaching.getMaxCachedSectionY(this);
+
+        betterBiomeBlend$blendColorCache.invalidateChunk(position.x, position.z, minSectionY, maxSectionY);
+        betterBiomeBlend$chunkColorCache.invalidateSmallNeighborhood(position.x, position.z, minSectionY, maxSectionY);
+        betterBiomeBlend$chunkBiomeCache.invalidateSmallNeighborhood(position.x, position.z, minSectionY, maxSectionY);
+        betterBiomeBlend$summedAreaTableCache.invalidateNeighborhood(position.x, position.z);
+        betterBiomeBlend$reducedColorCache.invalidateNeighborhood(position.x, position.z, minSectionY, maxSectionY);
+
+        if (betterBiomeBlend$persistentStore != null)
+        {
+            betterBiomeBlend$persistentStore.invalidateBiomeHash(position.x, position.z);
+        }
+
+        BackgroundBlending.scheduleChunk(
+            this,
+            position.x,
+            position.z,
+            betterBiomeBlend$blendColorCache,
+            betterBiomeBlend$chunkColorCache,
+            betterBiomeBlend$chunkBiomeCache,
+            betterBiomeBlend$summedAreaTableCache,
+            betterBiomeBlend$reducedColorCache);
     }
 
-    @Overwrite
-    public int
-    getColor(BlockPos blockPosIn, ColorResolver colorResolverIn)
+    @Override
+    public void
+    betterBiomeBlend$onBlendRadiusChanged(int blendRadius)
+    {
+        betterBiomeBlend$blendColorCache.retainBlendRadius(blendRadius);
+    }
+
+    @Unique
+    private ColorChunk
+    betterBiomeBlend$getBlendedChunk(ColorResolver colorResolverIn, int colorType, int chunkX, int sectionY, int chunkZ)
     {
-        int                     colorType;
-        ThreadLocal<ColorChunk> threadLocalChunk;
+        int blendRadius = BetterBiomeBlendClient.getBlendRadiusSetting();
 
-        if (colorResolverIn == BiomeColors.GRASS_COLOR)
+        ColorChunkLookaside lookaside = betterBiomeBlend$threadLocalLookaside.get();
+
+        ColorChunk result = lookaside.get(chunkX, sectionY, chunkZ, colorType, blendRadius);
+
+        if (result == null)
         {
-            colorType        = BiomeColorType.GRASS;
-            threadLocalChunk = betterBiomeBlend$threadLocalGrassChunk;
+            result = ColorCaching.getBlendedColorChunk(
+                this,
+                colorResolverIn,
+                colorType,
+                chunkX,
+                sectionY,
+                chunkZ,
+                blendRadius,
+                betterBiomeBlend$blendColorCache,
+                betterBiomeBlend$chunkColorCache,
+                betterBiomeBlend$chunkBiomeCache,
+                betterBiomeBlend$summedAreaTableCache,
+                betterBiomeBlend$reducedColorCache);
+
+            lookaside.put(chunkX, chunkZ, colorType, result, betterBiomeBlend$blendColorCache);
         }
-        else if (colorResolverIn == BiomeColors.WATER_COLOR)
+
+        return result;
+    }
+
+    @Override
+    public ColorChunk
+    betterBiomeBlend$acquireBlendedChunk(ColorResolver colorResolver, int colorType, int chunkX, int blockY, int chunkZ)
+    {
+        ColorChunk result = ColorCaching.getBlendedColorChunk(
+            this,
+            colorResolver,
+            colorType,
+            chunkX,
+            ColorCaching.getSectionY(blockY),
+            chunkZ,
+            BetterBiomeBlendClient.getBlendRadiusSetting(),
+            betterBiomeBlend$blendColorCache,
+            betterBiomeBlend$chunkColorCache,
+            betterBiomeBlend$chunkBiomeCache,
+            betterBiomeBlend$summedAreaTableCache,
+            betterBiomeBlend$reducedColorCache);
+
+        return result;
+    }
+
+    @Override
+    public void
+    betterBiomeBlend$releaseBlendedChunk(ColorChunk chunk)
+    {
+        betterBiomeBlend$blendColorCache.releaseChunk(chunk);
+    }
+
+    @Override
+    public void
+    betterBiomeBlend$getBlendedColorChunk(ColorResolver colorResolver, int chunkX, int blockY, int chunkZ, int[] result)
+    {
+        int colorType = ColorCaching.getColorType(colorResolver);
+        int sectionY  = ColorCaching.getSectionY(blockY);
+
+        if (colorType == ColorCaching.UNCACHED_COLOR_TYPE)
         {
-            colorType        = BiomeColorType.WATER;
-            threadLocalChunk = betterBiomeBlend$threadLocalWaterChunk;
+            ColorChunk uncachedChunk = new ColorChunk();
+
+            ColorBlending.gatherRawColorsForChunk(this, uncachedChunk, chunkX, sectionY, chunkZ, colorResolver);
+
+            uncachedChunk.get(0, result, 0, 16 * 16);
         }
-        else if (colorResolverIn == BiomeColors.FOLIAGE_COLOR)
+        else
         {
-            colorType        = BiomeColorType.FOLIAGE;
-            threadLocalChunk = betterBiomeBlend$threadLocalFoliageChunk;
+            ColorChunk chunk = betterBiomeBlend$getBlendedChunk(colorResolver, colorType, chunkX, sectionY, chunkZ);
+
+            chunk.get(0, result, 0, 16 * 16);
         }
-        else
+    }
+
+    @Override
+    public void
+    betterBiomeBlend$getBlendedColorRect(ColorResolver colorResolver, int minX, int blockY, int minZ, int maxX, int maxZ, int[] result)
+    {
+        int colorType = ColorCaching.getColorType(colorResolver);
+        int sectionY  = ColorCaching.getSectionY(blockY);
+        int width     = maxX - minX;
+
+        ColorChunk uncachedChunk = (colorType == ColorCaching.UNCACHED_COLOR_TYPE) ? new ColorChunk() : null;
+
+        for (int chunkZ = minZ >> 4;
+            chunkZ <= (maxZ - 1) >> 4;
+            ++chunkZ)
         {
-            colorType        = CustomColorResolverCompatibility.getColorType(colorResolverIn);
-            threadLocalChunk = betterBiomeBlend$threadLocalGenericChunk;
+            for (int chunkX = minX >> 4;
+                chunkX <= (maxX - 1) >> 4;
+                ++chunkX)
+            {
+                ColorChunk chunk;
+
+                if (uncachedChunk != null)
+                {
+                    ColorBlending.gatherRawColorsForChunk(this, uncachedChunk, chunkX, sectionY, chunkZ, colorResolver);
+
+                    chunk = uncachedChunk;
+                }
+                else
+                {
+                    chunk = betterBiomeBlend$getBlendedChunk(colorResolver, colorType, chunkX, sectionY, chunkZ);
+                }
+
+                int rectMinX = Math.max(minX, 16 * chunkX);
+                int rectMinZ = Math.max(minZ, 16 * chunkZ);
+                int rectMaxX = Math.min(maxX, 16 * chunkX + 16);
+                int rectMaxZ = Math.min(maxZ, 16 * chunkZ + 16);
+
+                for (int z = rectMinZ;
+                    z < rectMaxZ;
+                    ++z)
+                {
+                    for (int x = rectMinX;
+                        x < rectMaxX;
+                        ++x)
+                    {
+                        result[width * (z - minZ) + (x - minX)] = chunk.getColor(x, z);
+                    }
+                }
+            }
         }
+    }
 
+    @Overwrite
+    public int
+    getColor(BlockPos blockPosIn, ColorResolver colorResolverIn)
+    {
         int x = blockPosIn.getX();
         int z = blockPosIn.getZ();
 
-        int chunkX = x >> 4;
-        int chunkZ = z >> 4;
+        int colorType = ColorCaching.getColorType(colorResolverIn);
 
-        ColorChunk chunk = ColorCaching.getThreadLocalChunk(threadLocalChunk, chunkX, chunkZ, colorType);
+        int result;
 
-        if (chunk == null)
+        if (colorType == ColorCaching.UNCACHED_COLOR_TYPE)
         {
-            chunk = ColorCaching.getBlendedColorChunk(
-                this,
-                colorResolverIn,
-                colorType,
-                chunkX,
-                chunkZ,
-                betterBiomeBlend$blendColorCache,
-                betterBiomeBlend$chunkColorCache,
-                betterBiomeBlend$chunkBiomeCache);
-
-            ColorCaching.setThreadLocalChunk(threadLocalChunk, chunk, betterBiomeBlend$blendColorCache);
+            result = colorResolverIn.getColor(getBiome(blockPosIn), x, z);
         }
+        else
+        {
+            ColorChunk chunk = betterBiomeBlend$getBlendedChunk(colorResolverIn, colorType, x >> 4, ColorCaching.getSectionY(blockPosIn.getY()), z >> 4);
 
-        int result = chunk.getColor(x, z);
+            result = chunk.getColor(x, z);
+        }
 
         return result;
     }
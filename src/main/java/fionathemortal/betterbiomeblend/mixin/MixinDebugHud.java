@@ -0,0 +1,24 @@
+package fionathemortal.betterbiomeblend.mixin;
+
+import fionathemortal.betterbiomeblend.CacheMetrics;
+import net.minecraft.client.gui.hud.DebugHud;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+
+import java.util.List;
+
+@Mixin(DebugHud.class)
+public abstract class MixinDebugHud
+{
+    @Inject(method = "getLeftText", at = @At("RETURN"))
+    public void
+    onGetLeftText(CallbackInfoReturnable<List<String>> cir)
+    {
+        if (CacheMetrics.DEBUG_HUD)
+        {
+            CacheMetrics.appendDebugLines(cir.getReturnValue());
+        }
+    }
+}
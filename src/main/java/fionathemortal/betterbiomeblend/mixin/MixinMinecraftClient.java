@@ -0,0 +1,19 @@
+package fionathemortal.betterbiomeblend.mixin;
+
+import fionathemortal.betterbiomeblend.IncrementalRemesh;
+import net.minecraft.client.MinecraftClient;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+@Mixin(MinecraftClient.class)
+public abstract class MixinMinecraftClient
+{
+    @Inject(method = "tick", at = @At("HEAD"))
+    public void
+    onTick(CallbackInfo ci)
+    {
+        IncrementalRemesh.tick();
+    }
+}
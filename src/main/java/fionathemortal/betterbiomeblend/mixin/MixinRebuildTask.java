@@ -0,0 +1,42 @@
+package fionathemortal.betterbiomeblend.mixin;
+
+import fionathemortal.betterbiomeblend.BlendedColorRegion;
+import net.minecraft.block.entity.BlockEntity;
+import net.minecraft.client.render.chunk.ChunkRendererRegion;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.Unique;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+
+import java.util.Set;
+
+@Mixin(targets = "net.minecraft.client.render.chunk.ChunkBuilder$BuiltChunk$RebuildTask")
+public abstract class MixinRebuildTask
+{
+    @Shadow
+    protected ChunkRendererRegion region;
+
+    @Unique
+    private ChunkRendererRegion betterBiomeBlend$renderedRegion;
+
+    @Inject(method = "render", at = @At("HEAD"))
+    public void
+    onRenderHead(CallbackInfoReturnable<Set<BlockEntity>> cir)
+    {
+        betterBiomeBlend$renderedRegion = region;
+    }
+
+    @Inject(method = "render", at = @At("RETURN"))
+    public void
+    onRenderReturn(CallbackInfoReturnable<Set<BlockEntity>> cir)
+    {
+        if (betterBiomeBlend$renderedRegion instanceof BlendedColorRegion blendedColorRegion)
+        {
+            blendedColorRegion.betterBiomeBlend$releaseColorChunks();
+        }
+
+        betterBiomeBlend$renderedRegion = null;
+    }
+}
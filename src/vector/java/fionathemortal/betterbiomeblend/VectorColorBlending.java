@@ -0,0 +1,208 @@
+package fionathemortal.betterbiomeblend;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+public final class VectorColorBlending implements BlendKernel.ChunkBlender
+{
+    public static final VectorSpecies<Float> FLOAT_SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    @Override
+    public void
+    blend(int[] result, ColorBlendBuffer blendBuffer)
+    {
+        blendColorsForChunk(result, blendBuffer);
+    }
+
+    @Override
+    public void
+    blendRect(int[] result, ColorBlendBuffer blendBuffer, int minX, int minZ, int maxX, int maxZ)
+    {
+        blendColorsForRect(result, blendBuffer, minX, minZ, maxX, maxZ);
+    }
+
+    public static void
+    addRow(float[] sums, float[] plane, int rowOffset, int count)
+    {
+        int bound = FLOAT_SPECIES.loopBound(count);
+        int x     = 0;
+
+        for (;
+            x < bound;
+            x += FLOAT_SPECIES.length())
+        {
+            FloatVector sum = FloatVector.fromArray(FLOAT_SPECIES, sums,  x);
+            FloatVector add = FloatVector.fromArray(FLOAT_SPECIES, plane, rowOffset + x);
+
+            sum.add(add).intoArray(sums, x);
+        }
+
+        for (;
+            x < count;
+            ++x)
+        {
+            sums[x] += plane[rowOffset + x];
+        }
+    }
+
+    public static void
+    slideRow(float[] sums, float[] plane, int addOffset, int subOffset, int count)
+    {
+        int bound = FLOAT_SPECIES.loopBound(count);
+        int x     = 0;
+
+        for (;
+            x < bound;
+            x += FLOAT_SPECIES.length())
+        {
+            FloatVector sum = FloatVector.fromArray(FLOAT_SPECIES, sums,  x);
+            FloatVector add = FloatVector.fromArray(FLOAT_SPECIES, plane, addOffset + x);
+            FloatVector sub = FloatVector.fromArray(FLOAT_SPECIES, plane, subOffset + x);
+
+            sum.add(add.sub(sub)).intoArray(sums, x);
+        }
+
+        for (;
+            x < count;
+            ++x)
+        {
+            sums[x] += plane[addOffset + x] - plane[subOffset + x];
+        }
+    }
+
+    public static void
+    computePrefixSums(float[] prefix, float[] sums, int count)
+    {
+        float accumulated = 0;
+
+        prefix[0] = 0;
+
+        for (int x = 0;
+            x < count;
+            ++x)
+        {
+            accumulated += sums[x];
+
+            prefix[x + 1] = accumulated;
+        }
+    }
+
+    public static FloatVector
+    linearTosRGB(FloatVector color)
+    {
+        VectorMask<Float> isLinearSegment = color.compare(VectorOperators.LE, 0.00313066844250063f);
+
+        FloatVector linearSegment = color.mul(12.92f);
+        FloatVector powerSegment  = color.lanewise(VectorOperators.POW, 1.0f / 2.4f).mul(1.055f).sub(0.055f);
+
+        FloatVector result = powerSegment.blend(linearSegment, isLinearSegment);
+
+        return result;
+    }
+
+    public static void
+    blendRow(float[] prefix, int blendDim, float blendCount, int[] row, int count)
+    {
+        int bound = FLOAT_SPECIES.loopBound(count);
+        int x     = 0;
+
+        for (;
+            x < bound;
+            x += FLOAT_SPECIES.length())
+        {
+            FloatVector upper = FloatVector.fromArray(FLOAT_SPECIES, prefix, x + blendDim);
+            FloatVector lower = FloatVector.fromArray(FLOAT_SPECIES, prefix, x);
+
+            FloatVector linear = upper.sub(lower).div(blendCount);
+            FloatVector sRGB   = linearTosRGB(linear).mul(255.0f).add(0.5f);
+
+            sRGB.convert(VectorOperators.F2I, 0).reinterpretAsInts().intoArray(row, x);
+        }
+
+        for (;
+            x < count;
+            ++x)
+        {
+            float linear = (prefix[x + blendDim] - prefix[x]) / blendCount;
+
+            row[x] = 0xFF & Color.linearFloatTosRGBByte(linear);
+        }
+    }
+
+    public static void
+    blendColorsForChunk(int[] result, ColorBlendBuffer blendCache)
+    {
+        blendColorsForRect(result, blendCache, 0, 0, blendCache.outputDim, blendCache.outputDim);
+    }
+
+    public static void
+    blendColorsForRect(int[] result, ColorBlendBuffer blendCache, int minX, int minZ, int maxX, int maxZ)
+    {
+        float[] R = blendCache.R;
+        float[] G = blendCache.G;
+        float[] B = blendCache.B;
+
+        int blendRadius = blendCache.blendRadius;
+        int blendDim = 2 * blendRadius + 1;
+        int outputDim = blendCache.outputDim;
+        int blendCacheDim = outputDim + 2 * blendRadius;
+        int blendCount = blendDim * blendDim;
+        int rectDim = maxX - minX;
+        int columnCount = rectDim + 2 * blendRadius;
+        int rowCount = (maxZ - minZ) + 2 * blendRadius;
+
+        ColorBlending.convertToLinearPlanes(blendCache, minX, minZ, columnCount, rowCount);
+
+        blendCache.allocateRowSums();
+
+        int firstRow = blendCacheDim * minZ + minX;
+
+        System.arraycopy(blendCache.linearR, firstRow, R, 0, columnCount);
+        System.arraycopy(blendCache.linearG, firstRow, G, 0, columnCount);
+        System.arraycopy(blendCache.linearB, firstRow, B, 0, columnCount);
+
+        for (int z = 1;
+            z < blendDim;
+            ++z)
+        {
+            addRow(R, blendCache.linearR, firstRow + blendCacheDim * z, columnCount);
+            addRow(G, blendCache.linearG, firstRow + blendCacheDim * z, columnCount);
+            addRow(B, blendCache.linearB, firstRow + blendCacheDim * z, columnCount);
+        }
+
+        for (int z = minZ;
+            z < maxZ;
+            ++z)
+        {
+            computePrefixSums(blendCache.prefixR, R, columnCount);
+            computePrefixSums(blendCache.prefixG, G, columnCount);
+            computePrefixSums(blendCache.prefixB, B, columnCount);
+
+            blendRow(blendCache.prefixR, blendDim, (float)blendCount, blendCache.rowR, rectDim);
+            blendRow(blendCache.prefixG, blendDim, (float)blendCount, blendCache.rowG, rectDim);
+            blendRow(blendCache.prefixB, blendDim, (float)blendCount, blendCache.rowB, rectDim);
+
+            for (int x = 0;
+                x < rectDim;
+                ++x)
+            {
+                result[outputDim * z + minX + x] = Color.makeRGBAWithFullAlpha(
+                    blendCache.rowR[x],
+                    blendCache.rowG[x],
+                    blendCache.rowB[x]);
+            }
+
+            if (z < maxZ - 1)
+            {
+                int subOffset = blendCacheDim * (z           ) + minX;
+                int addOffset = blendCacheDim * (z + blendDim) + minX;
+
+                slideRow(R, blendCache.linearR, addOffset, subOffset, columnCount);
+                slideRow(G, blendCache.linearG, addOffset, subOffset, columnCount);
+                slideRow(B, blendCache.linearB, addOffset, subOffset, columnCount);
+            }
+        }
+    }
+}